@@ -0,0 +1,50 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// compares the beam search to the greedy search,
+// which a beam width of 1 should match in cost
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BeamSearchBenchmark {
+    private static final int SENTENCE_COUNT = 256;
+    private static final int SENTENCE_LENGTH = 20;
+
+    @Param({"1", "2", "4", "8"})
+    public int beamWidth;
+
+    private Tagger tagger;
+    private List<List<String>> sentences;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        this.tagger = SyntheticCorpus.train();
+        this.sentences =
+            SyntheticCorpus.getWords(SyntheticCorpus.generate(SENTENCE_COUNT, SENTENCE_LENGTH,
+                                                              SyntheticCorpus.SEED + 1));
+    }
+
+    private List<String> nextSentence() {
+        List<String> sentence = this.sentences.get(this.index);
+        this.index = (this.index + 1) % this.sentences.size();
+        return sentence;
+    }
+
+    @Benchmark
+    public List<String> greedy() {
+        return this.tagger.tag(nextSentence());
+    }
+
+    @Benchmark
+    public List<String> beam() {
+        return this.tagger.tag(nextSentence(), this.beamWidth);
+    }
+}
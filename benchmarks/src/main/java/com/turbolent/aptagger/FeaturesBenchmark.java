@@ -0,0 +1,76 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeaturesBenchmark {
+    private static final int SENTENCE_LENGTH = 20;
+
+    private List<String> words;
+    private final Context context = new Context();
+    private final Features features = new Features();
+
+    @Setup
+    public void setUp() {
+        this.words = SyntheticCorpus.generate(1, SENTENCE_LENGTH, SyntheticCorpus.SEED)
+                                    .get(0).words;
+    }
+
+    // normalizes the words of a sentence and pads them
+    @Benchmark
+    public int getContext() {
+        this.context.reset(this.words);
+        return this.context.size();
+    }
+
+    // normalizes the words of a sentence, like getContext, and extracts the features
+    // of every word, so the hashing of the words of each sentence is included
+    @Benchmark
+    public long getFeatures() {
+        this.context.reset(this.words);
+        long checksum = 0;
+        int offset = Tagger.START.length;
+        for (int index = 0; index < this.words.size(); index++) {
+            this.features.extract(offset + index, this.words.get(index), this.context,
+                                  "NN", "DT");
+            checksum ^= this.features.ids[this.features.size - 1];
+        }
+        return checksum;
+    }
+
+    // normalizes the words of a sentence and extracts the features of every word
+    // which don't depend on the tags
+    @Benchmark
+    public long getStaticFeatures() {
+        this.context.reset(this.words);
+        long checksum = 0;
+        int offset = Tagger.START.length;
+        for (int index = 0; index < this.words.size(); index++) {
+            this.features.extractStatic(offset + index, this.words.get(index), this.context);
+            checksum ^= this.features.ids[this.features.size - 1];
+        }
+        return checksum;
+    }
+
+    // normalizes the words of a sentence and extracts the features of every word
+    // which depend on the tags
+    @Benchmark
+    public long getDynamicFeatures() {
+        this.context.reset(this.words);
+        long checksum = 0;
+        int offset = Tagger.START.length;
+        for (int index = 0; index < this.words.size(); index++) {
+            this.features.extractDynamic(offset + index, this.context, "NN", "DT");
+            checksum ^= this.features.ids[this.features.size - 1];
+        }
+        return checksum;
+    }
+}
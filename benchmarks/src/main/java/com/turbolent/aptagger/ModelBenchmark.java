@@ -0,0 +1,56 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+    @Param({"MSGPACK", "MAPPED"})
+    public Tagger.Format format;
+
+    private Tagger tagger;
+    private Path modelPath;
+    private Path outputPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.tagger = SyntheticCorpus.train();
+        this.modelPath = Files.createTempFile("aptagger-benchmark", ".model");
+        this.outputPath = Files.createTempFile("aptagger-benchmark", ".model");
+        this.tagger.saveTo(this.modelPath, this.format);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.modelPath);
+        Files.deleteIfExists(this.outputPath);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Tagger loadFrom() throws IOException {
+        return Tagger.loadFrom(this.modelPath);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Tagger loadFromLatency() throws IOException {
+        return Tagger.loadFrom(this.modelPath);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void saveTo() throws IOException {
+        this.tagger.saveTo(this.outputPath, this.format);
+    }
+}
@@ -0,0 +1,58 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerceptronBenchmark {
+    private static final int SENTENCE_COUNT = 100;
+
+    @Param({"NONE", "FLOAT16", "INT8"})
+    public Quantization quantization;
+
+    private AveragedPerceptron perceptron;
+    private Features[] features;
+    private float[] scores;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        Tagger tagger = SyntheticCorpus.train();
+        this.perceptron = tagger.perceptron.quantize(this.quantization);
+        this.scores = new float[this.perceptron.getLabelCount()];
+
+        List<Features> allFeatures = new ArrayList<>();
+        int offset = Tagger.START.length;
+        for (TaggedSentence sentence
+            : SyntheticCorpus.generate(SENTENCE_COUNT, SyntheticCorpus.SEED + 1))
+        {
+            Context context = new Context();
+            context.reset(sentence.words);
+            String prev = Tagger.START[0];
+            String prev2 = Tagger.START[1];
+            for (int index = 0; index < sentence.words.size(); index++) {
+                allFeatures.add(Features.getFeatures(offset + index, sentence.words.get(index),
+                                                     context, prev, prev2));
+                prev2 = prev;
+                prev = sentence.tags.get(index);
+            }
+        }
+        this.features = allFeatures.toArray(new Features[allFeatures.size()]);
+    }
+
+    // predicts the label of one word
+    @Benchmark
+    public int predict() {
+        Features features = this.features[this.index];
+        this.index = (this.index + 1) % this.features.length;
+        return this.perceptron.predict(features, this.scores);
+    }
+}
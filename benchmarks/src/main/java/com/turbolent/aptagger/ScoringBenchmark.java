@@ -0,0 +1,100 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// compares ways of summing the weight rows of one prediction and finding the best label:
+// rows at offsets into one array with a separate argmax, padded row arrays with a separate
+// argmax, and padded row arrays with the argmax fused into adding the last row.
+// Run with -jvmArgsAppend -XX:-UseSuperWord to compare with scalar code
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScoringBenchmark {
+    private static final int ROW_COUNT = 4096;
+    private static final int PREDICTION_COUNT = 1024;
+
+    // the size of the Penn Treebank tag set
+    @Param({"45"})
+    public int labelCount;
+
+    private int stride;
+    private float[] weights;
+    private float[][] paddedRows;
+    private int[] rows;
+    private float[] scores;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SyntheticCorpus.SEED);
+        this.stride = ScoringKernel.getStride(this.labelCount);
+        this.weights = new float[ROW_COUNT * this.labelCount];
+        this.paddedRows = new float[ROW_COUNT][this.stride];
+        for (int row = 0; row < ROW_COUNT; row++) {
+            for (int labelId = 0; labelId < this.labelCount; labelId++) {
+                float weight = (float) random.nextGaussian();
+                this.weights[row * this.labelCount + labelId] = weight;
+                this.paddedRows[row][labelId] = weight;
+            }
+        }
+
+        this.rows = new int[PREDICTION_COUNT * Features.COUNT];
+        for (int index = 0; index < this.rows.length; index++)
+            this.rows[index] = random.nextInt(ROW_COUNT);
+        this.scores = new float[this.stride];
+    }
+
+    private int nextPrediction() {
+        int start = this.index;
+        this.index = (this.index + Features.COUNT) % this.rows.length;
+        return start;
+    }
+
+    @Benchmark
+    public int flat() {
+        int start = nextPrediction();
+        int labelCount = this.labelCount;
+        float[] weights = this.weights;
+        float[] scores = this.scores;
+        Arrays.fill(scores, 0.f);
+        for (int feature = 0; feature < Features.COUNT; feature++) {
+            int offset = this.rows[start + feature] * labelCount;
+            for (int labelId = 0; labelId < labelCount; labelId++)
+                scores[labelId] += weights[offset + labelId];
+        }
+        return ScoringKernel.getBest(scores, labelCount);
+    }
+
+    @Benchmark
+    public int padded() {
+        int start = nextPrediction();
+        int stride = this.stride;
+        float[] scores = this.scores;
+        Arrays.fill(scores, 0.f);
+        for (int feature = 0; feature < Features.COUNT; feature++) {
+            ScoringKernel.add(this.paddedRows[this.rows[start + feature]], scores, stride);
+        }
+        return ScoringKernel.getBest(scores, this.labelCount);
+    }
+
+    @Benchmark
+    public int paddedFused() {
+        int start = nextPrediction();
+        int stride = this.stride;
+        float[] scores = this.scores;
+        Arrays.fill(scores, 0.f);
+        int last = Features.COUNT - 1;
+        for (int feature = 0; feature < last; feature++) {
+            ScoringKernel.add(this.paddedRows[this.rows[start + feature]], scores, stride);
+        }
+        return ScoringKernel.addAndGetBest(this.paddedRows[this.rows[start + last]],
+                                           scores, this.labelCount);
+    }
+}
@@ -0,0 +1,149 @@
+package com.turbolent.aptagger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Generates a reproducible tagged corpus from a small grammar, with ambiguous words,
+// numbers and out-of-vocabulary words, so the benchmarks need no external data
+public class SyntheticCorpus {
+    public static final long SEED = 42;
+    public static final int TRAINING_SENTENCES = 4000;
+    public static final int TRAINING_ITERATIONS = 5;
+
+    private static final String[] DETERMINERS = {"the", "a", "an", "this", "that", "The", "A"};
+    private static final String[] ADJECTIVES =
+        {"big", "small", "red", "fast", "old", "new", "happy", "good", "simple", "complex"};
+    private static final String[] NOUNS =
+        {"dog", "cat", "tree", "house", "car", "idea", "man", "woman", "city", "river",
+         "book", "code", "tagger", "model", "run", "walk", "work", "play"};
+    private static final String[] VERBS =
+        {"runs", "sees", "likes", "builds", "eats", "reads", "writes", "takes", "makes",
+         "finds", "walks", "works", "plays"};
+    private static final String[] ADVERBS = {"quickly", "slowly", "often", "never", "well"};
+    private static final String[] PREPOSITIONS = {"in", "on", "with", "near", "under", "of", "by"};
+    private static final String LETTERS = "abcdefghiklmnoprstu";
+
+    private final Random random;
+    private final List<String> words = new ArrayList<>();
+    private final List<String> tags = new ArrayList<>();
+
+    private SyntheticCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    private String choose(String[] options) {
+        return options[this.random.nextInt(options.length)];
+    }
+
+    private void add(String word, String tag) {
+        this.words.add(word);
+        this.tags.add(tag);
+    }
+
+    private String randomWord() {
+        int length = 2 + this.random.nextInt(7);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append(LETTERS.charAt(this.random.nextInt(LETTERS.length())));
+        return builder.toString();
+    }
+
+    private void addNounPhrase() {
+        if (this.random.nextFloat() < 0.1f) {
+            add(String.valueOf(this.random.nextInt(2000)), "CD");
+            add(choose(NOUNS) + "s", "NNS");
+            return;
+        }
+
+        add(choose(DETERMINERS), "DT");
+        if (this.random.nextFloat() < 0.4f)
+            add(choose(ADJECTIVES), "JJ");
+
+        float kind = this.random.nextFloat();
+        if (kind < 0.1f)
+            add(randomWord(), "NN");
+        else if (kind < 0.3f)
+            add(choose(NOUNS) + "s", "NNS");
+        else
+            add(choose(NOUNS), "NN");
+    }
+
+    private void addClause() {
+        addNounPhrase();
+        if (this.random.nextFloat() < 0.2f)
+            add(choose(ADVERBS), "RB");
+        add(choose(VERBS), "VBZ");
+        addNounPhrase();
+        if (this.random.nextFloat() < 0.5f) {
+            add(choose(PREPOSITIONS), "IN");
+            addNounPhrase();
+        }
+    }
+
+    private TaggedSentence nextSentence(int length) {
+        this.words.clear();
+        this.tags.clear();
+
+        addClause();
+        while (this.words.size() < length - 1) {
+            add("and", "CC");
+            addClause();
+        }
+
+        int end = Math.max(0, length - 1);
+        List<String> words = new ArrayList<>(this.words.subList(0, end));
+        List<String> tags = new ArrayList<>(this.tags.subList(0, end));
+        words.add(".");
+        tags.add(".");
+        return new TaggedSentence(words, tags);
+    }
+
+    private TaggedSentence nextSentence() {
+        this.words.clear();
+        this.tags.clear();
+
+        addClause();
+        add(".", ".");
+        return new TaggedSentence(new ArrayList<>(this.words), new ArrayList<>(this.tags));
+    }
+
+    // sentences of natural length, from a single clause
+    public static List<TaggedSentence> generate(int sentenceCount, long seed) {
+        SyntheticCorpus corpus = new SyntheticCorpus(seed);
+        List<TaggedSentence> sentences = new ArrayList<>(sentenceCount);
+        for (int i = 0; i < sentenceCount; i++)
+            sentences.add(corpus.nextSentence());
+        return sentences;
+    }
+
+    // sentences of the given number of words
+    public static List<TaggedSentence> generate(int sentenceCount, int sentenceLength,
+                                                long seed)
+    {
+        SyntheticCorpus corpus = new SyntheticCorpus(seed);
+        List<TaggedSentence> sentences = new ArrayList<>(sentenceCount);
+        for (int i = 0; i < sentenceCount; i++)
+            sentences.add(corpus.nextSentence(sentenceLength));
+        return sentences;
+    }
+
+    public static Tagger train(List<TaggedSentence> sentences, int iterations) {
+        return TrainableTagger.getTrained(new ArrayList<>(sentences), iterations,
+                                          CommandLineInterface.FREQUENCY_THRESHOLD,
+                                          CommandLineInterface.AMBIGUITY_THRESHOLD,
+                                          1, SEED, null);
+    }
+
+    public static Tagger train() {
+        return train(generate(TRAINING_SENTENCES, SEED), TRAINING_ITERATIONS);
+    }
+
+    public static List<List<String>> getWords(List<TaggedSentence> sentences) {
+        List<List<String>> words = new ArrayList<>(sentences.size());
+        for (TaggedSentence sentence : sentences)
+            words.add(Collections.unmodifiableList(sentence.words));
+        return words;
+    }
+}
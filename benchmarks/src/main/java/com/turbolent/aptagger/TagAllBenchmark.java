@@ -0,0 +1,56 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// compares tagging a batch of sentences in parallel on the given number of threads
+// to tagging them one after the other on the benchmark thread
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TagAllBenchmark {
+    private static final int SENTENCE_COUNT = 4096;
+    private static final int SENTENCE_LENGTH = 20;
+
+    @Param({"1", "2", "4", "8"})
+    public int threadCount;
+
+    private Tagger tagger;
+    private ExecutorService executor;
+    private List<List<String>> sentences;
+
+    @Setup
+    public void setUp() {
+        this.tagger = SyntheticCorpus.train();
+        this.executor = Executors.newFixedThreadPool(this.threadCount);
+        this.sentences =
+            SyntheticCorpus.getWords(SyntheticCorpus.generate(SENTENCE_COUNT, SENTENCE_LENGTH,
+                                                              SyntheticCorpus.SEED + 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Benchmark
+    public List<List<String>> tagAll() {
+        return this.tagger.tagAll(this.sentences, this.executor);
+    }
+
+    @Benchmark
+    public List<List<String>> sequential() {
+        List<List<String>> results = new ArrayList<>(this.sentences.size());
+        for (List<String> sentence : this.sentences)
+            results.add(this.tagger.tag(sentence));
+        return results;
+    }
+}
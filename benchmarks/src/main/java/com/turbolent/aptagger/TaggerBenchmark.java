@@ -0,0 +1,70 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaggerBenchmark {
+    private static final int SENTENCE_COUNT = 256;
+    private static final int CACHE_CAPACITY = 4096;
+
+    @Param({"5", "20", "50"})
+    public int sentenceLength;
+
+    private Tagger tagger;
+    private Tagger taggerWithMetrics;
+    private Tagger taggerWithSentenceCache;
+    private List<List<String>> sentences;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        this.tagger = SyntheticCorpus.train();
+        this.taggerWithMetrics = this.tagger.withMetrics(new TaggerStatistics());
+        this.taggerWithSentenceCache = this.tagger.withCache(new TaggerCache(CACHE_CAPACITY));
+        this.sentences =
+            SyntheticCorpus.getWords(SyntheticCorpus.generate(SENTENCE_COUNT, this.sentenceLength,
+                                                              SyntheticCorpus.SEED + 1));
+    }
+
+    private List<String> nextSentence() {
+        List<String> sentence = this.sentences.get(this.index);
+        this.index = (this.index + 1) % this.sentences.size();
+        return sentence;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<String> tag() {
+        return this.tagger.tag(nextSentence());
+    }
+
+    // reports the latency distribution, including the 99th percentile
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> tagLatency() {
+        return this.tagger.tag(nextSentence());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<String> tagWithMetrics() {
+        return this.taggerWithMetrics.tag(nextSentence());
+    }
+
+    // all sentences are repeated, so after the warmup all are cached
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<String> tagWithSentenceCache() {
+        return this.taggerWithSentenceCache.tag(nextSentence());
+    }
+}
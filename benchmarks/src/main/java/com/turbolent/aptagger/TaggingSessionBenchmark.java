@@ -0,0 +1,63 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// compares tagging into new lists to tagging into the arrays of a session,
+// which should allocate nothing: see gc.alloc.rate.norm, in bytes per operation
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TaggingSessionBenchmark {
+    private static final int SENTENCE_COUNT = 256;
+    private static final int SENTENCE_LENGTH = 20;
+
+    @Param({"1", "4"})
+    public int beamWidth;
+
+    private Tagger tagger;
+    private TaggingSession session;
+    private String[] tags;
+    private int[] labelIds;
+    private List<List<String>> sentences;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        this.tagger = SyntheticCorpus.train();
+        this.session = this.tagger.newSession();
+        this.tags = new String[SENTENCE_LENGTH];
+        this.labelIds = new int[SENTENCE_LENGTH];
+        this.sentences =
+            SyntheticCorpus.getWords(SyntheticCorpus.generate(SENTENCE_COUNT, SENTENCE_LENGTH,
+                                                              SyntheticCorpus.SEED + 1));
+    }
+
+    private List<String> nextSentence() {
+        List<String> sentence = this.sentences.get(this.index);
+        this.index = (this.index + 1) % this.sentences.size();
+        return sentence;
+    }
+
+    @Benchmark
+    public List<String> tagger() {
+        return this.tagger.tag(nextSentence(), this.beamWidth);
+    }
+
+    @Benchmark
+    public String[] session() {
+        this.session.tag(nextSentence(), this.beamWidth, this.tags);
+        return this.tags;
+    }
+
+    @Benchmark
+    public int[] sessionLabelIds() {
+        this.session.tag(nextSentence(), this.beamWidth, this.labelIds);
+        return this.labelIds;
+    }
+}
@@ -0,0 +1,28 @@
+package com.turbolent.aptagger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrainingBenchmark {
+    private List<TaggedSentence> sentences;
+
+    @Setup
+    public void setUp() {
+        this.sentences = SyntheticCorpus.generate(SyntheticCorpus.TRAINING_SENTENCES,
+                                                  SyntheticCorpus.SEED);
+    }
+
+    // one training iteration, including the tag dictionary and the averaging
+    @Benchmark
+    public Tagger getTrained() {
+        return SyntheticCorpus.train(this.sentences, 1);
+    }
+}
@@ -3,34 +3,340 @@ package com.turbolent.aptagger;
 import java.util.*;
 
 public class AveragedPerceptron {
-    public final Map<String, Map<String, Float>> weights;
-    public final Set<String> labels;
+    public interface MetricsListener {
+        void onPredicted(int featureCount, int unknownFeatureCount);
+    }
 
-    public AveragedPerceptron(Map<String, Map<String, Float>> weights, Set<String> labels) {
-        this.weights = weights;
+    public final String[] labels;
+    public final WeightStore weights;
+    protected final MetricsListener metrics;
+
+    public AveragedPerceptron(String[] labels, WeightStore weights) {
+        this(labels, weights, null);
+    }
+
+    protected AveragedPerceptron(String[] labels, WeightStore weights,
+                                 MetricsListener metrics)
+    {
         this.labels = labels;
+        this.weights = weights;
+        this.metrics = metrics;
+    }
+
+    public AveragedPerceptron(String[] labels, long[] features, float[] weights) {
+        this(labels, new HeapWeightStore(labels.length, features, weights));
     }
 
-    public String predict(Map<String, Integer> features) {
-        Map<String, Float> scores = new HashMap<>();
+    /**
+     * Compiles weights keyed by the feature strings of the legacy model format.
+     * <p>
+     * The labels are scored by the sum of their weights, like the labels of trained models.
+     * The map-backed model dropped the first weight of each label, so some words
+     * are tagged differently than by the map-backed model.
+     */
+    public static AveragedPerceptron fromLegacy(Map<String, Map<String, Float>> weights,
+                                                Set<String> labels)
+    {
+        String[] labelArray = labels.toArray(new String[labels.size()]);
 
-        for (Map.Entry<String, Integer> featureEntry : features.entrySet()) {
-            String feature = featureEntry.getKey();
-            int value = featureEntry.getValue();
-            Map<String, Float> weights = this.weights.get(feature);
-            if (weights == null || value == 0)
+        int labelCount = labelArray.length;
+        Map<String, Integer> labelIds = new HashMap<>();
+        for (int labelId = 0; labelId < labelCount; labelId++)
+            labelIds.put(labelArray[labelId], labelId);
+
+        long[] features = new long[weights.size()];
+        float[] rows = new float[weights.size() * labelCount];
+        int row = 0;
+        for (Map.Entry<String, Map<String, Float>> featureEntry : weights.entrySet()) {
+            Map<String, Float> featureWeights = featureEntry.getValue();
+            if (featureWeights.isEmpty())
                 continue;
 
-            for (Map.Entry<String, Float> weightEntry : weights.entrySet()) {
-                String label = weightEntry.getKey();
-                float weight = weightEntry.getValue();
-                scores.merge(label, 0.f, (current, initial) ->
-                    current + value * weight);
+            int offset = row * labelCount;
+            for (Map.Entry<String, Float> weightEntry : featureWeights.entrySet()) {
+                Integer labelId = labelIds.get(weightEntry.getKey());
+                if (labelId != null)
+                    rows[offset + labelId] = weightEntry.getValue();
             }
+            features[row] = Features.getId(featureEntry.getKey());
+            row += 1;
         }
 
-        return Collections.max(this.labels, (String label1, String label2) ->
-            Float.compare(scores.getOrDefault(label1, Float.MIN_VALUE),
-                          scores.getOrDefault(label2, Float.MIN_VALUE)));
+        return new AveragedPerceptron(labelArray,
+                                      new HeapWeightStore(labelCount,
+                                                          Arrays.copyOf(features, row),
+                                                          Arrays.copyOf(rows,
+                                                                        row * labelCount)));
+    }
+
+    // Returns a perceptron sharing this one's weights, which reports each prediction
+    // to the given listener, or no longer reports predictions if the listener is null
+    public AveragedPerceptron withMetrics(MetricsListener metrics) {
+        return new AveragedPerceptron(this.labels, this.weights, metrics);
+    }
+
+    public int getLabelCount() {
+        return this.labels.length;
+    }
+
+    /**
+     * Returns a perceptron without the features whose weights have an L1 norm below the
+     * given minimum weight, and, if frequencies are given, without the features whose
+     * frequency is below the given minimum frequency. The frequencies are indexed by row.
+     * The weights keep their quantization.
+     */
+    public AveragedPerceptron prune(int[] frequencies, int minimumFrequency,
+                                    float minimumWeight)
+    {
+        WeightStore weights = this.weights;
+        int labelCount = this.labels.length;
+        int featureCount = weights.getFeatureCount();
+
+        long[] features = new long[featureCount];
+        float[] rows = new float[featureCount * labelCount];
+        int keptCount = 0;
+        for (int row = 0; row < featureCount; row++) {
+            if (frequencies != null && frequencies[row] < minimumFrequency)
+                continue;
+
+            int offset = keptCount * labelCount;
+            float norm = 0.f;
+            for (int labelId = 0; labelId < labelCount; labelId++) {
+                float weight = weights.getWeight(row, labelId);
+                rows[offset + labelId] = weight;
+                norm += Math.abs(weight);
+            }
+            if (norm < minimumWeight)
+                continue;
+
+            features[keptCount++] = weights.getFeature(row);
+        }
+
+        AveragedPerceptron pruned =
+            new AveragedPerceptron(this.labels,
+                                   new HeapWeightStore(labelCount,
+                                                       Arrays.copyOf(features, keptCount),
+                                                       Arrays.copyOf(rows,
+                                                                     keptCount * labelCount)),
+                                   this.metrics);
+        return pruned.quantize(weights.getQuantization());
+    }
+
+    // Returns a perceptron with the weights encoded with the given quantization
+    public AveragedPerceptron quantize(Quantization quantization) {
+        if (this.weights.getQuantization() == quantization)
+            return this;
+        return new AveragedPerceptron(this.labels, copyWeights(quantization), this.metrics);
+    }
+
+    // Returns a copy of the weights on the heap, encoded with the given quantization
+    private WeightStore copyWeights(Quantization quantization) {
+        int labelCount = this.labels.length;
+        long[] features = getFeatures();
+        switch (quantization) {
+            case FLOAT16:
+                return new Float16WeightStore(labelCount, features,
+                                              Quantization.toFloat16(this.weights));
+            case INT8:
+                float[] scales = new float[features.length];
+                byte[] bytes = Quantization.toInt8(this.weights, scales);
+                return new Int8WeightStore(labelCount, features, bytes, scales);
+            default:
+                return new HeapWeightStore(labelCount, features, getWeights());
+        }
+    }
+
+    /**
+     * Returns a perceptron with the features, the feature index and the weights copied
+     * into direct buffers outside of the heap, or this perceptron if they are already
+     * outside of the heap, e.g. mapped from a model file. The arrays of the weight stores
+     * are copied as they are, so quantized weights are not encoded again.
+     */
+    public AveragedPerceptron toOffHeap() {
+        WeightStore weights = this.weights;
+        // other stores are first copied to the heap
+        if (!(weights instanceof HeapWeightStore || weights instanceof BufferWeightStore))
+            weights = copyWeights(weights.getQuantization());
+
+        if (weights instanceof HeapWeightStore) {
+            weights = ((HeapWeightStore) weights).toDirect();
+        } else {
+            BufferWeightStore bufferWeights = (BufferWeightStore) weights;
+            if (bufferWeights.isDirect())
+                return this;
+            weights = bufferWeights.toDirect();
+        }
+        return new AveragedPerceptron(this.labels, weights, this.metrics);
+    }
+
+    // Fills the given array with the score of each label
+    public void score(Features features, float[] scores) {
+        Arrays.fill(scores, 0, this.labels.length, 0.f);
+
+        WeightStore weights = this.weights;
+        long[] ids = features.ids;
+        if (this.metrics == null) {
+            for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+                int row = weights.findRow(ids[featureIndex]);
+                if (row >= 0)
+                    weights.addRow(row, scores);
+            }
+        } else {
+            int unknownFeatureCount = 0;
+            for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+                int row = weights.findRow(ids[featureIndex]);
+                if (row >= 0)
+                    weights.addRow(row, scores);
+                else
+                    unknownFeatureCount += 1;
+            }
+            this.metrics.onPredicted(features.size, unknownFeatureCount);
+        }
+    }
+
+    // Adds the scores of the given features, and returns the number of unknown features
+    private int addScores(Features features, float[] scores) {
+        WeightStore weights = this.weights;
+        long[] ids = features.ids;
+        int unknownFeatureCount = 0;
+        for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+            int row = weights.findRow(ids[featureIndex]);
+            if (row >= 0)
+                weights.addRow(row, scores);
+            else
+                unknownFeatureCount += 1;
+        }
+        return unknownFeatureCount;
+    }
+
+    /**
+     * Fills the given array with the scores of the given static features of a word,
+     * see {@link Features#extractStatic}, which are completed by {@link #score(float[],
+     * int, Features, float[])} for each combination of previous tags.
+     * Returns the number of unknown features.
+     */
+    public int scoreStatic(Features features, float[] staticScores) {
+        Arrays.fill(staticScores, 0, this.labels.length, 0.f);
+        return addScores(features, staticScores);
+    }
+
+    /**
+     * Fills the given array with the given static scores of a word plus the scores
+     * of the given dynamic features, see {@link Features#extractDynamic}.
+     * The number of unknown static features is only used for the metrics.
+     */
+    public void score(float[] staticScores, int staticUnknownFeatureCount,
+                      Features features, float[] scores)
+    {
+        System.arraycopy(staticScores, 0, scores, 0, this.labels.length);
+        int unknownFeatureCount = addScores(features, scores);
+        if (this.metrics != null) {
+            this.metrics.onPredicted(Features.COUNT,
+                                     staticUnknownFeatureCount + unknownFeatureCount);
+        }
+    }
+
+    public int predict(float[] staticScores, int staticUnknownFeatureCount,
+                       Features features, float[] scores)
+    {
+        System.arraycopy(staticScores, 0, scores, 0, this.labels.length);
+        return addScoresAndGetBest(features, Features.COUNT, staticUnknownFeatureCount,
+                                   scores);
+    }
+
+    public int predict(Features features, float[] scores) {
+        Arrays.fill(scores, 0, this.labels.length, 0.f);
+        return addScoresAndGetBest(features, features.size, 0, scores);
+    }
+
+    // Adds the scores of the given features, finding the best label while adding
+    // the last known feature's row, and reports the prediction to the metrics
+    private int addScoresAndGetBest(Features features, int featureCount,
+                                    int unknownFeatureCount, float[] scores)
+    {
+        WeightStore weights = this.weights;
+        long[] ids = features.ids;
+        int lastRow = -1;
+        for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+            int row = weights.findRow(ids[featureIndex]);
+            if (row < 0) {
+                unknownFeatureCount += 1;
+                continue;
+            }
+            if (lastRow >= 0)
+                weights.addRow(lastRow, scores);
+            lastRow = row;
+        }
+
+        int best = lastRow >= 0
+                   ? weights.addRowAndGetBest(lastRow, scores)
+                   : ScoringKernel.getBest(scores, this.labels.length);
+
+        if (this.metrics != null)
+            this.metrics.onPredicted(featureCount, unknownFeatureCount);
+        return best;
+    }
+
+    public String predict(Features features) {
+        return this.labels[predict(features, new float[this.labels.length])];
+    }
+
+    /**
+     * Scores the labels and finds the k best, without sorting all labels.
+     * Fills the given arrays with the best label ids and their scores, best first,
+     * and returns how many were found, i.e. k, or the label count if smaller.
+     * Ties are resolved in label order, like in {@link #predict}.
+     */
+    public int predictTopK(Features features, float[] scores, int k,
+                           int[] topLabelIds, float[] topScores)
+    {
+        score(features, scores);
+        if (k <= 0)
+            return 0;
+
+        int labelCount = this.labels.length;
+        int count = 0;
+        for (int labelId = 0; labelId < labelCount; labelId++) {
+            float score = scores[labelId];
+            if (count == k && score <= topScores[k - 1])
+                continue;
+
+            int position = count < k ? count++ : k - 1;
+            while (position > 0 && score > topScores[position - 1]) {
+                topLabelIds[position] = topLabelIds[position - 1];
+                topScores[position] = topScores[position - 1];
+                position -= 1;
+            }
+            topLabelIds[position] = labelId;
+            topScores[position] = score;
+        }
+        return count;
+    }
+
+    // Returns the softmax probability of the given label, based on the given scores
+    public float getConfidence(float[] scores, int labelId) {
+        int labelCount = this.labels.length;
+        float score = scores[labelId];
+        double sum = 0;
+        for (int otherLabelId = 0; otherLabelId < labelCount; otherLabelId++)
+            sum += Math.exp(scores[otherLabelId] - score);
+        return (float) (1 / sum);
+    }
+
+    public long[] getFeatures() {
+        long[] features = new long[this.weights.getFeatureCount()];
+        for (int row = 0; row < features.length; row++)
+            features[row] = this.weights.getFeature(row);
+        return features;
+    }
+
+    public float[] getWeights() {
+        int labelCount = this.labels.length;
+        float[] weights = new float[this.weights.getFeatureCount() * labelCount];
+        for (int row = 0, offset = 0; offset < weights.length; row++, offset += labelCount) {
+            for (int labelId = 0; labelId < labelCount; labelId++)
+                weights[offset + labelId] = this.weights.getWeight(row, labelId);
+        }
+        return weights;
     }
 }
@@ -0,0 +1,98 @@
+package com.turbolent.aptagger;
+
+/**
+ * Preallocated state of a beam search over tag histories.
+ * <p>
+ * The hypotheses of the beam are identified by their last two tags, which are all
+ * the features depend on, so candidates ending in the same two tags are recombined
+ * and only the best of them is kept.
+ */
+class Beam {
+    final int width;
+    final float[][] labelScores;
+
+    int size = 0;
+    final String[] prevs;
+    final String[] prev2s;
+    final float[] scores;
+
+    int candidateCount = 0;
+    final String[] candidateTags;
+    final int[] candidateParents;
+    final float[] candidateScores;
+
+    Beam(int width, int labelCount) {
+        this.width = width;
+        this.labelScores = new float[width][ScoringKernel.getStride(labelCount)];
+        this.prevs = new String[width];
+        this.prev2s = new String[width];
+        this.scores = new float[width];
+        this.candidateTags = new String[width];
+        this.candidateParents = new int[width];
+        this.candidateScores = new float[width];
+    }
+
+    void start(String prev, String prev2) {
+        this.size = 1;
+        this.prevs[0] = prev;
+        this.prev2s[0] = prev2;
+        this.scores[0] = 0.f;
+        this.candidateCount = 0;
+    }
+
+    // Offers the extension of the given hypothesis by the given tag.
+    // Candidates are kept in descending score order, and ties keep the earlier offer
+    void offer(String tag, int parent, float score) {
+        int count = this.candidateCount;
+        String prev = this.prevs[parent];
+
+        int position = count;
+        for (int candidate = 0; candidate < count; candidate++) {
+            if (this.candidateTags[candidate].equals(tag)
+                && this.prevs[this.candidateParents[candidate]].equals(prev))
+            {
+                if (this.candidateScores[candidate] >= score)
+                    return;
+                position = candidate;
+                break;
+            }
+        }
+
+        if (position == count) {
+            if (count == this.width) {
+                if (score <= this.candidateScores[count - 1])
+                    return;
+                position = count - 1;
+            } else {
+                this.candidateCount = count + 1;
+            }
+        }
+
+        while (position > 0 && score > this.candidateScores[position - 1]) {
+            this.candidateTags[position] = this.candidateTags[position - 1];
+            this.candidateParents[position] = this.candidateParents[position - 1];
+            this.candidateScores[position] = this.candidateScores[position - 1];
+            position -= 1;
+        }
+        this.candidateTags[position] = tag;
+        this.candidateParents[position] = parent;
+        this.candidateScores[position] = score;
+    }
+
+    // Replaces the hypotheses by the candidates,
+    // recording their tags and parents for the backtracking
+    void advance(String[] tags, int[] parents) {
+        int count = this.candidateCount;
+        for (int candidate = 0; candidate < count; candidate++) {
+            tags[candidate] = this.candidateTags[candidate];
+            parents[candidate] = this.candidateParents[candidate];
+            this.prev2s[candidate] = this.prevs[this.candidateParents[candidate]];
+        }
+        for (int candidate = 0; candidate < count; candidate++) {
+            this.prevs[candidate] = this.candidateTags[candidate];
+            this.scores[candidate] = this.candidateScores[candidate];
+        }
+        this.size = count;
+        this.candidateCount = 0;
+    }
+}
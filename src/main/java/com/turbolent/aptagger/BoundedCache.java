@@ -0,0 +1,118 @@
+package com.turbolent.aptagger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache which holds at most about the given number of entries.
+ * <p>
+ * Entries are spread over segments by the hash of their key. Each segment is locked
+ * independently and evicts its least recently used entry when it is full.
+ * Values are computed outside of the lock, so a value may be computed more than
+ * once when several threads miss the same key at the same time.
+ */
+public class BoundedCache<K, V> {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > this.capacity;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BoundedCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid cache capacity " + capacity);
+
+        int segmentCapacity = Math.max(1, (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int index = 0; index < SEGMENT_COUNT; index++)
+            this.segments[index] = new Segment<>(segmentCapacity);
+    }
+
+    private Segment<K, V> getSegment(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return this.segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    public V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null)
+            this.misses.increment();
+        else
+            this.hits.increment();
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+        V value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public float getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0.f : (float) hits / total;
+    }
+}
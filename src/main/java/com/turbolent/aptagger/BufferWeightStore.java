@@ -0,0 +1,69 @@
+package com.turbolent.aptagger;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Weight store whose feature ids and feature index are held in buffers, either mapped
+ * from a model file, allocated outside of the heap, or wrapping arrays. The index
+ * is laid out like {@link FeatureIndex}. Subclasses hold the weight rows.
+ */
+public abstract class BufferWeightStore implements WeightStore {
+    protected final int labelCount;
+    final LongBuffer features;
+    final LongBuffer keys;
+    final IntBuffer rows;
+    private final int mask;
+
+    protected BufferWeightStore(int labelCount, LongBuffer features,
+                                LongBuffer keys, IntBuffer rows)
+    {
+        this.labelCount = labelCount;
+        this.features = features;
+        this.keys = keys;
+        this.rows = rows;
+        this.mask = keys.capacity() - 1;
+    }
+
+    protected BufferWeightStore(int labelCount, long[] features, FeatureIndex index) {
+        this(labelCount, LongBuffer.wrap(features),
+             LongBuffer.wrap(index.keys), IntBuffer.wrap(index.rows));
+    }
+
+    // Returns if the buffers are outside of the heap, i.e. mapped or direct
+    public boolean isDirect() {
+        return this.features.isDirect();
+    }
+
+    // Returns a copy of the store in direct buffers, with the weights as they are
+    abstract BufferWeightStore toDirect();
+
+    @Override
+    public int getLabelCount() {
+        return this.labelCount;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return this.features.capacity();
+    }
+
+    @Override
+    public long getFeature(int row) {
+        return this.features.get(row);
+    }
+
+    @Override
+    public int findRow(long feature) {
+        LongBuffer keys = this.keys;
+        int slot = FeatureIndex.hash(feature) & this.mask;
+        while (true) {
+            long key = keys.get(slot);
+            if (key == feature)
+                return this.rows.get(slot);
+            if (key == 0)
+                return -1;
+            slot = (slot + 1) & this.mask;
+        }
+    }
+}
@@ -1,20 +1,46 @@
 package com.turbolent.aptagger;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class CommandLineInterface {
 
+    public static final char SENTENCE_SEPARATOR_CHAR = ' ';
+    public static final char TOKEN_SEPARATOR_CHAR = '_';
+
+    /** @deprecated Use {@link #SENTENCE_SEPARATOR_CHAR}, which is split without a regex */
+    @Deprecated
     public static final Pattern SENTENCE_SEPARATOR = Pattern.compile(" ");
+
+    /** @deprecated Use {@link #TOKEN_SEPARATOR_CHAR}, which is split without a regex */
+    @Deprecated
     public static final Pattern TOKEN_SEPARATOR = Pattern.compile("_");
+
     public static final int TRAINING_STATUS_GAP = 500;
+    public static final int TAGGING_BATCH_SIZE = 4096;
     public static final int TRAINING_ITERATIONS = 5;
     public static final int FREQUENCY_THRESHOLD = 20;
     public static final float AMBIGUITY_THRESHOLD = 0.97f;
@@ -23,15 +49,76 @@ public class CommandLineInterface {
         String usage =
             "Usage:\n"
             + "  tag <model-file> <word>...\n"
-            + "  train <corpus-file> <model-file>\n"
-            + "  test <model-file> <corpus-file>\n"
+            + "  tag-file <model-file> [<input-file>]\n"
+            + "  train <corpus-file> <model-file> [--threads <count>] [--seed <seed>]\n"
+            + "        [--checkpoint <checkpoint-file>] [--frequency-threshold <count>]\n"
+            + "        [--ambiguity-threshold <ratio>] [--cache-features true|false]\n"
+            + "        [--off-heap true|false]\n"
+            + "  update <checkpoint-file> <corpus-file> <model-file> [--iterations <count>]\n"
+            + "         [--threads <count>] [--seed <seed>] [--cache-features true|false]\n"
+            + "         [--off-heap true|false]\n"
+            + "  dictionary <corpus-file> [--threads <count>]\n"
+            + "             [--frequency-threshold <count>] [--ambiguity-threshold <ratio>]\n"
+            + "  test <model-file> <corpus-file> [--threads <count>]\n"
+            + "       [--min-accuracy <ratio>]\n"
+            + "  serve <model-file> [--port <port>] [--queue-capacity <count>]\n"
+            + "        [--batch-size <count>] [--off-heap true|false]\n"
+            + "  convert <model-file> <mapped-model-file>\n"
+            + "  compact <model-file> <compact-model-file> [--min-weight <weight>]\n"
+            + "          [--min-frequency <count> --corpus <corpus-file>]\n"
+            + "          [--quantize float16|int8] [--format msgpack|mapped]\n"
+            + "          [--test <corpus-file>]\n"
             + "\n"
             + "Commands:\n"
-            + "  tag    Returns a tagged sentence of the given words using the given model.\n"
-            + "  train  Creates a model from the given corpus, which should contain\n"
-            + "         one tagged sentence per line.\n"
-            + "  test   Tests how the given model performs for the given corpus.\n"
-            + "         Prints the ratio of correct and total number of tags.\n"
+            + "  tag       Returns a tagged sentence of the given words using the given model.\n"
+            + "  tag-file  Tags the input file, or the standard input if no file is given,\n"
+            + "            which should contain one sentence of words separated by spaces\n"
+            + "            per line. Prints one tagged sentence per line.\n"
+            + "  train     Creates a model from the given corpus, which should contain\n"
+            + "            one tagged sentence per line.\n"
+            + "            With more than one thread, the threads train on shards of the\n"
+            + "            corpus and their weights are mixed after each iteration.\n"
+            + "            The seed makes the shuffling of the corpus reproducible.\n"
+            + "            With a checkpoint file, also saves the training state.\n"
+            + "            Words occurring more often than the frequency threshold, with\n"
+            + "            one tag in at least the ratio of the ambiguity threshold, are\n"
+            + "            tagged from a dictionary (defaults: 20 and 0.97).\n"
+            + "            With cached features, the features which don't depend on the\n"
+            + "            previous tags are extracted once and kept in memory, which makes\n"
+            + "            the iterations after the first faster (default: false).\n"
+            + "            Off-heap, the training state is kept outside of the heap\n"
+            + "            (default: false).\n"
+            + "  update    Resumes training from the given checkpoint on the given corpus,\n"
+            + "            which may only contain known tags, saves the checkpoint again,\n"
+            + "            and creates a model from it.\n"
+            + "  dictionary\n"
+            + "            Prints the tag dictionary of the given corpus, as in train,\n"
+            + "            counting the tags in parallel without reading the corpus into\n"
+            + "            memory. Prints one word and its tag per line, separated by\n"
+            + "            an underscore.\n"
+            + "  test      Tests how the given model performs for the given corpus,\n"
+            + "            tagging it in parallel (by default on all processors) without\n"
+            + "            reading it into memory. Prints the accuracy of all tags, of the\n"
+            + "            tags from the dictionary and of the predicted tags, the tokens\n"
+            + "            per second, the precision and recall of each tag, and the\n"
+            + "            confusion matrix as JSON. Exits with status 2 if the accuracy\n"
+            + "            is below the minimum accuracy.\n"
+            + "  serve     Serves the given model over HTTP on the loopback address\n"
+            + "            (default port 8080). POST /tag tags the body like tag-file.\n"
+            + "            Concurrent requests are tagged together in batches of up to\n"
+            + "            the batch size (default 256 sentences). Requests beyond the queue\n"
+            + "            capacity (default 1024) are rejected with status 503.\n"
+            + "            GET /health and GET /metrics report the status.\n"
+            + "            The model is reloaded in the background when the file is\n"
+            + "            replaced, or on POST /reload, without interrupting tagging.\n"
+            + "            Off-heap, the weights are kept outside of the heap, like the\n"
+            + "            weights of mapped models (default: false).\n"
+            + "  convert   Converts the given model into the memory-mapped binary format,\n"
+            + "            which loads nearly instantly and shares memory between processes.\n"
+            + "  compact   Prunes the features whose weights have an L1 norm below the minimum\n"
+            + "            weight, or which occur less often than the minimum frequency\n"
+            + "            in the given corpus, and optionally quantizes the weights.\n"
+            + "            With a test corpus, prints the accuracy before and after.\n"
             + "\n"
             + "Format:\n"
             + "  A tagged sentence consists of tokens separated by spaces, where each token\n"
@@ -43,18 +130,34 @@ public class CommandLineInterface {
     public static TaggedSentence asSentence(String sentence) {
         List<String> words = new ArrayList<>();
         List<String> tags = new ArrayList<>();
-        SENTENCE_SEPARATOR.splitAsStream(sentence)
-            .forEach(token -> {
-                String[] parts = TOKEN_SEPARATOR.split(token);
-                if (parts.length == 2) {
-                    words.add(parts[0]);
-                    tags.add(parts[1]);
-                } else {
-                    String message = String.format("Invalid token \"%s\" in sentence \"%s\"",
-                                                   token, sentence);
-                    throw new RuntimeException(message);
-                }
-            });
+        int tokensEnd = Tokenizer.getPartsEnd(sentence, 0, sentence.length(),
+                                              SENTENCE_SEPARATOR_CHAR);
+        for (int tokenStart = 0; tokenStart <= tokensEnd; ) {
+            int tokenEnd = Tokenizer.getPartEnd(sentence, tokenStart, tokensEnd,
+                                                SENTENCE_SEPARATOR_CHAR);
+
+            // the token must consist of exactly two parts, the word and the tag
+            int partsEnd = Tokenizer.getPartsEnd(sentence, tokenStart, tokenEnd,
+                                                 TOKEN_SEPARATOR_CHAR);
+            int wordEnd = partsEnd < 0
+                          ? partsEnd
+                          : Tokenizer.getPartEnd(sentence, tokenStart, partsEnd,
+                                                 TOKEN_SEPARATOR_CHAR);
+            if (wordEnd < 0
+                || wordEnd == partsEnd
+                || Tokenizer.getPartEnd(sentence, wordEnd + 1, partsEnd,
+                                        TOKEN_SEPARATOR_CHAR) != partsEnd)
+            {
+                String message = String.format("Invalid token \"%s\" in sentence \"%s\"",
+                                               sentence.substring(tokenStart, tokenEnd),
+                                               sentence);
+                throw new RuntimeException(message);
+            }
+
+            words.add(sentence.substring(tokenStart, wordEnd));
+            tags.add(sentence.substring(wordEnd + 1, partsEnd));
+            tokenStart = tokenEnd + 1;
+        }
 
         return new TaggedSentence(words, tags);
     }
@@ -75,101 +178,501 @@ public class CommandLineInterface {
         }
     }
 
+    public static List<String> asWords(String sentence) {
+        if (sentence.isEmpty())
+            return Collections.emptyList();
+        return Tokenizer.split(sentence, SENTENCE_SEPARATOR_CHAR);
+    }
+
+    private static void writeTaggedSentences(Writer writer, List<List<String>> sentences,
+                                             List<List<String>> sentenceTags)
+        throws IOException
+    {
+        for (int sentenceIndex = 0; sentenceIndex < sentences.size(); sentenceIndex++) {
+            List<String> words = sentences.get(sentenceIndex);
+            List<String> tags = sentenceTags.get(sentenceIndex);
+            for (int i = 0; i < words.size(); i++) {
+                if (i > 0)
+                    writer.write(' ');
+                writer.write(words.get(i));
+                writer.write('_');
+                writer.write(tags.get(i));
+            }
+            writer.write('\n');
+        }
+    }
+
+    private static BufferedReader openInput(Path inputPath) throws IOException {
+        if (inputPath == null)
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return Files.newBufferedReader(inputPath, StandardCharsets.UTF_8);
+    }
+
+    public static void printTaggedFile(Path modelPath, Path inputPath) {
+        try (BufferedReader reader = openInput(inputPath)) {
+            Tagger tagger = Tagger.loadFrom(modelPath);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out,
+                                                                      StandardCharsets.UTF_8));
+
+            List<List<String>> sentences = new ArrayList<>(TAGGING_BATCH_SIZE);
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null)
+                    sentences.add(asWords(line));
+
+                if (sentences.size() == TAGGING_BATCH_SIZE
+                    || (line == null && !sentences.isEmpty()))
+                {
+                    writeTaggedSentences(writer, sentences, tagger.tagAll(sentences));
+                    sentences.clear();
+                }
+            } while (line != null);
+
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+        }
+    }
+
     public static List<TaggedSentence> readSentences(Path corpusPath) throws IOException {
-        return Files.lines(corpusPath)
-                    .map(CommandLineInterface::asSentence)
-                    .collect(Collectors.toList());
+        return Corpus.read(corpusPath);
     }
 
+    private static TrainableTagger.TrainingListener getTrainingListener() {
+        return new TrainableTagger.TrainingListener() {
+            @Override
+            public void onIterationStart(int iterationIndex, int iterationCount) {
+                System.err.format("Iteration %d/%d:\n", iterationIndex + 1, iterationCount);
+            }
+
+            @Override
+            public void onTrainedSentence(int sentenceIndex, int sentenceCount,
+                                          int correct, int total)
+            {
+                int sentenceNumber = sentenceIndex + 1;
+                if (sentenceNumber != sentenceCount
+                    && sentenceNumber % TRAINING_STATUS_GAP != 0)
+                {
+                    return;
+                }
+
+                System.err.format("... %d/%d: %s\n",
+                                  sentenceNumber, sentenceCount,
+                                  formatCorrectAndTotal(correct, total));
+            }
+
+            @Override
+            public void onIterationEnd(int iterationIndex, int iterationCount) {
+            }
+
+            @Override
+            public void onAveraging() {
+                System.err.println("Averaging ...");
+            }
+        };
+    }
+
+    // Saves the checkpoint to a temporary file first, so an existing checkpoint
+    // is only replaced by a complete one
+    private static void saveCheckpoint(TrainableTagger tagger, Path checkpointPath)
+        throws IOException
+    {
+        System.err.println("Saving checkpoint ...");
+        Path temporaryPath = Paths.get(checkpointPath + ".tmp");
+        try {
+            tagger.saveCheckpoint(temporaryPath);
+            Files.move(temporaryPath, checkpointPath,
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Trains on one thread with the default seed, see {@link TrainableTagger#DEFAULT_SEED}.
+     *
+     * @deprecated Use {@link #train(Path, Path, int, int, float, int, long, boolean, boolean,
+     * Path)}, which takes the thread count, the seed and the training options
+     */
+    @Deprecated
     public static void train(Path corpusPath, Path modelPath, int iterations,
                              int frequencyThreshold, float ambiguityThreshold)
+    {
+        train(corpusPath, modelPath, iterations, frequencyThreshold, ambiguityThreshold,
+              1, TrainableTagger.DEFAULT_SEED, false, false, null);
+    }
+
+    public static void train(Path corpusPath, Path modelPath, int iterations,
+                             int frequencyThreshold, float ambiguityThreshold,
+                             int threadCount, long seed, boolean cacheFeatures,
+                             boolean offHeap, Path checkpointPath)
     {
         try {
             System.err.println("Reading sentences ...");
             List<TaggedSentence> sentences = readSentences(corpusPath);
 
             System.err.println("Training ...");
-            TrainableTagger.TrainingListener listener = new TrainableTagger.TrainingListener() {
-                @Override
-                public void onIterationStart(int iterationIndex, int iterationCount) {
-                    System.err.format("Iteration %d/%d:\n", iterationIndex + 1, iterationCount);
-                }
+            TrainableTagger.TrainingListener listener = getTrainingListener();
+            TrainableTagger trainableTagger =
+                TrainableTagger.getInitialTagger(sentences, frequencyThreshold,
+                                                 ambiguityThreshold, threadCount,
+                                                 getTrainingWeightStore(offHeap));
+            trainableTagger.train(sentences, iterations, threadCount, seed, cacheFeatures,
+                                  listener);
 
-                @Override
-                public void onTrainedSentence(int sentenceIndex, int sentenceCount,
-                                              int correct, int total)
-                {
-                    int sentenceNumber = sentenceIndex + 1;
-                    if (sentenceNumber != sentenceCount
-                        && sentenceNumber % TRAINING_STATUS_GAP != 0)
-                    {
-                        return;
-                    }
+            if (checkpointPath != null)
+                saveCheckpoint(trainableTagger, checkpointPath);
 
-                    System.err.format("... %d/%d: %s\n",
-                                      sentenceNumber, sentenceCount,
-                                      formatCorrectAndTotal(correct, total));
+            listener.onAveraging();
+            Tagger tagger = trainableTagger.getTagger();
 
+            System.err.println("Saving ...");
+            tagger.saveTo(modelPath);
+        } catch (IOException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+        }
+    }
 
-                }
+    public static void update(Path checkpointPath, Path corpusPath, Path modelPath,
+                              int iterations, int threadCount, long seed,
+                              boolean cacheFeatures, boolean offHeap)
+    {
+        try {
+            System.err.println("Loading checkpoint ...");
+            TrainableTagger trainableTagger =
+                TrainableTagger.loadCheckpoint(checkpointPath, getTrainingWeightStore(offHeap));
 
-                @Override
-                public void onIterationEnd(int iterationIndex, int iterationCount) {
-                }
+            System.err.println("Reading sentences ...");
+            List<TaggedSentence> sentences = readSentences(corpusPath);
 
-                @Override
-                public void onAveraging() {
-                    System.err.println("Averaging ...");
-                }
-            };
+            System.err.println("Training ...");
+            TrainableTagger.TrainingListener listener = getTrainingListener();
+            trainableTagger.train(sentences, iterations, threadCount, seed, cacheFeatures,
+                                  listener);
+
+            saveCheckpoint(trainableTagger, checkpointPath);
 
-            Tagger tagger =
-                TrainableTagger.getTrained(sentences, iterations, frequencyThreshold,
-                                           ambiguityThreshold, listener);
+            listener.onAveraging();
+            Tagger tagger = trainableTagger.getTagger();
 
             System.err.println("Saving ...");
             tagger.saveTo(modelPath);
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("Failed: " + e);
             System.exit(1);
         }
     }
 
-    private static String formatCorrectAndTotal(int correct, int total) {
+    // Reads the lines in batches and hands them to the given number of threads, which
+    // process them into their own results. The queue of batches is bounded, so reading
+    // waits for the threads and the input is never fully in memory.
+    // A thread which fails keeps taking batches until the end, so reading never waits
+    // forever, and reading stops early. Returns the results of the threads,
+    // or throws the first failure
+    private static <T> List<T> processLines(BufferedReader reader, int threadCount,
+                                            Supplier<T> supplier,
+                                            BiConsumer<T, String> consumer)
+        throws IOException
+    {
+        BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(threadCount * 2);
+        List<String> end = Collections.emptyList();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<CompletableFuture<T>> futures = new ArrayList<>();
+            for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    T result = null;
+                    try {
+                        result = supplier.get();
+                    } catch (RuntimeException | Error e) {
+                        failure.compareAndSet(null, e);
+                    }
+                    try {
+                        List<String> lines;
+                        while ((lines = batches.take()) != end) {
+                            if (failure.get() != null)
+                                continue;
+                            try {
+                                for (String line : lines)
+                                    consumer.accept(result, line);
+                            } catch (RuntimeException | Error e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                    return result;
+                }, executor));
+            }
+
+            try {
+                List<String> lines = new ArrayList<>(TAGGING_BATCH_SIZE);
+                String line;
+                while (failure.get() == null && (line = reader.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() == TAGGING_BATCH_SIZE) {
+                        batches.put(lines);
+                        lines = new ArrayList<>(TAGGING_BATCH_SIZE);
+                    }
+                }
+                if (!lines.isEmpty())
+                    batches.put(lines);
+                for (int threadIndex = 0; threadIndex < threadCount; threadIndex++)
+                    batches.put(end);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            List<T> results = new ArrayList<>();
+            for (CompletableFuture<T> future : futures)
+                results.add(future.join());
+
+            Throwable throwable = failure.get();
+            if (throwable instanceof Error)
+                throw (Error) throwable;
+            if (throwable != null)
+                throw (RuntimeException) throwable;
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void printDictionary(Path corpusPath, int frequencyThreshold,
+                                       float ambiguityThreshold, int threadCount)
+    {
+        try (BufferedReader reader = Files.newBufferedReader(corpusPath,
+                                                             StandardCharsets.UTF_8))
+        {
+            TagCounts counts = new TagCounts();
+            for (TagCounts threadCounts
+                : processLines(reader, threadCount, TagCounts::new,
+                               (lineCounts, line) -> lineCounts.add(asSentence(line))))
+            {
+                counts.addAll(threadCounts);
+            }
+            Map<String, String> dictionary =
+                counts.getDictionary(frequencyThreshold, ambiguityThreshold);
+            System.err.format("%d of %d words\n", dictionary.size(), counts.getWordCount());
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out,
+                                                                      StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> entry : new TreeMap<>(dictionary).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(TOKEN_SEPARATOR_CHAR);
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private static String formatCorrectAndTotal(long correct, long total) {
         return String.format("%d/%d = %.3f%%",
                              correct, total,
-                             (((float) correct) / total) * 100);
+                             ((double) correct / total) * 100);
     }
 
+    /**
+     * Tests the model on all processors, and prints the evaluation like
+     * {@link #test(Path, Path, int, double)}.
+     *
+     * @deprecated Use {@link #test(Path, Path, int, double)}, which takes the thread count
+     * and returns whether the minimum accuracy is reached
+     */
+    @Deprecated
     public static void test(Path modelPath, Path corpusPath) {
+        test(modelPath, corpusPath, Runtime.getRuntime().availableProcessors(), 0);
+    }
+
+    // Tags the corpus in parallel and prints the evaluation as JSON. Returns
+    // whether the accuracy reaches the given minimum
+    public static boolean test(Path modelPath, Path corpusPath, int threadCount,
+                               double minimumAccuracy)
+    {
+        try (BufferedReader reader = Files.newBufferedReader(corpusPath,
+                                                             StandardCharsets.UTF_8))
+        {
+            System.err.println("Loading tagger ...");
+            Tagger tagger = Tagger.loadFrom(modelPath);
+
+            System.err.println("Testing ...");
+            long start = System.nanoTime();
+            Evaluation evaluation = new Evaluation();
+            for (Evaluation threadEvaluation
+                : processLines(reader, threadCount, Evaluation::new,
+                               (lineEvaluation, line) -> {
+                                   TaggedSentence sentence = asSentence(line);
+                                   lineEvaluation.add(tagger, sentence,
+                                                      tagger.tag(sentence.words));
+                               }))
+            {
+                evaluation.addAll(threadEvaluation);
+            }
+            evaluation.setNanoseconds(System.nanoTime() - start);
+
+            System.err.format("%s, %.0f tokens/s\n",
+                              formatCorrectAndTotal(evaluation.getCorrectCount(),
+                                                    evaluation.getTokenCount()),
+                              evaluation.getTokensPerSecond());
+            System.out.println(evaluation.toJson());
+            return evaluation.getAccuracy() >= minimumAccuracy;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+            return false;
+        }
+    }
+
+    public static void serve(Path modelPath, int port, int queueCapacity, int batchSize,
+                             boolean offHeap)
+    {
         try {
-            System.err.println("Reading sentences ...");
-            List<TaggedSentence> sentences = readSentences(corpusPath);
+            System.err.println("Loading tagger ...");
+            TaggerStatistics statistics = new TaggerStatistics();
+            ReloadableTaggerHandle.ReloadListener listener =
+                new ReloadableTaggerHandle.ReloadListener() {
+                    @Override
+                    public void onReloaded(Path path, Tagger tagger) {
+                        System.err.println("Reloaded " + path);
+                    }
+
+                    @Override
+                    public void onReloadFailed(Path path, Exception exception) {
+                        System.err.println("Failed to reload " + path + ": " + exception);
+                    }
+                };
+            ReloadableTaggerHandle tagger =
+                new ReloadableTaggerHandle(modelPath, statistics, null, listener, offHeap);
+            tagger.watch();
+
+            TaggerServer server =
+                new TaggerServer(tagger, statistics, port, queueCapacity, batchSize);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.err.format("Listening on port %d ...\n", server.getPort());
+        } catch (IOException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+        }
+    }
 
+    public static void convert(Path modelPath, Path mappedModelPath) {
+        try {
             System.err.println("Loading tagger ...");
             Tagger tagger = Tagger.loadFrom(modelPath);
 
-            int total = 0;
-            int correct = 0;
-
-            for (TaggedSentence sentence : sentences) {
-                List<String> tags = tagger.tag(sentence.words);
-                for (int i = 0; i < sentence.words.size(); i++) {
-                    String tag = sentence.tags.get(i);
-                    String guess = tags.get(i);
-                    if (guess.equals(tag))
-                        correct += 1;
-                    total += 1;
-                }
+            System.err.println("Saving ...");
+            tagger.saveTo(mappedModelPath, Tagger.Format.MAPPED);
+        } catch (IOException e) {
+            System.err.println("Failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    public static void compact(Path modelPath, Path compactModelPath, float minimumWeight,
+                               Path frequencyCorpusPath, int minimumFrequency,
+                               Quantization quantization, Tagger.Format format,
+                               Path testCorpusPath)
+    {
+        try {
+            System.err.println("Loading tagger ...");
+            Tagger tagger = Tagger.loadFrom(modelPath);
+
+            int[] frequencies = null;
+            if (frequencyCorpusPath != null) {
+                System.err.println("Counting features ...");
+                frequencies = tagger.getFeatureFrequencies(readSentences(frequencyCorpusPath));
             }
 
-            System.err.println(formatCorrectAndTotal(correct, total));
+            System.err.println("Compacting ...");
+            Tagger compactTagger = tagger.prune(frequencies, minimumFrequency, minimumWeight)
+                                         .quantize(quantization);
+
+            System.err.println("Saving ...");
+            compactTagger.saveTo(compactModelPath, format);
+
+            System.err.format("Features: %d -> %d\n",
+                              tagger.perceptron.weights.getFeatureCount(),
+                              compactTagger.perceptron.weights.getFeatureCount());
+            System.err.format("Size: %d -> %d bytes\n",
+                              Files.size(modelPath), Files.size(compactModelPath));
+
+            if (testCorpusPath != null) {
+                System.err.println("Testing ...");
+                List<TaggedSentence> sentences = readSentences(testCorpusPath);
+                System.err.format("Accuracy: %s -> %s\n",
+                                  formatAccuracy(tagger, sentences),
+                                  formatAccuracy(Tagger.loadFrom(compactModelPath), sentences));
+            }
         } catch (IOException e) {
             System.err.println("Failed: " + e);
             System.exit(1);
         }
     }
 
+    private static String formatAccuracy(Tagger tagger, List<TaggedSentence> sentences) {
+        int total = 0;
+        int correct = 0;
+        for (TaggedSentence sentence : sentences) {
+            List<String> tags = tagger.tag(sentence.words);
+            for (int i = 0; i < sentence.words.size(); i++) {
+                if (tags.get(i).equals(sentence.tags.get(i)))
+                    correct += 1;
+                total += 1;
+            }
+        }
+        return formatCorrectAndTotal(correct, total);
+    }
+
+    // Parses the "--name value" pairs following the positional arguments,
+    // or returns null if they are malformed
+    private static Map<String, String> parseOptions(String[] args, int start) {
+        Map<String, String> options = new HashMap<>();
+        for (int index = start; index < args.length; index += 2) {
+            String name = args[index];
+            if (!name.startsWith("--") || index + 1 >= args.length)
+                return null;
+            options.put(name.substring(2), args[index + 1]);
+        }
+        return options;
+    }
+
+    private static int getFrequencyThreshold(Map<String, String> options) {
+        return options.containsKey("frequency-threshold")
+               ? Integer.parseInt(options.get("frequency-threshold"))
+               : FREQUENCY_THRESHOLD;
+    }
+
+    private static float getAmbiguityThreshold(Map<String, String> options) {
+        return options.containsKey("ambiguity-threshold")
+               ? Float.parseFloat(options.get("ambiguity-threshold"))
+               : AMBIGUITY_THRESHOLD;
+    }
+
+    private static boolean getCacheFeatures(Map<String, String> options) {
+        return Boolean.parseBoolean(options.getOrDefault("cache-features", "false"));
+    }
+
+    private static boolean getOffHeap(Map<String, String> options) {
+        return Boolean.parseBoolean(options.getOrDefault("off-heap", "false"));
+    }
+
+    private static TrainingWeightStore getTrainingWeightStore(boolean offHeap) {
+        return offHeap ? new DirectTrainingWeightStore() : new HeapTrainingWeightStore();
+    }
+
     public static void main(String[] args) {
         if (args.length < 2) {
             printUsage();
@@ -184,16 +687,75 @@ public class CommandLineInterface {
                 printTaggedWords(modelPath, words);
                 break;
             }
+            case "tag-file": {
+                Path modelPath = Paths.get(args[1]);
+                Path inputPath = args.length > 2 ? Paths.get(args[2]) : null;
+                printTaggedFile(modelPath, inputPath);
+                break;
+            }
             case "train": {
                 if (args.length < 3) {
                     printUsage();
                     break;
                 }
 
+                Map<String, String> options = parseOptions(args, 3);
+                if (options == null) {
+                    printUsage();
+                    break;
+                }
+
                 Path corpusPath = Paths.get(args[1]);
                 Path modelPath = Paths.get(args[2]);
+                int threadCount = Integer.parseInt(options.getOrDefault("threads", "1"));
+                long seed = options.containsKey("seed")
+                            ? Long.parseLong(options.get("seed"))
+                            : new Random().nextLong();
+                Path checkpointPath = options.containsKey("checkpoint")
+                                      ? Paths.get(options.get("checkpoint"))
+                                      : null;
+                int frequencyThreshold = getFrequencyThreshold(options);
+                float ambiguityThreshold = getAmbiguityThreshold(options);
                 train(corpusPath, modelPath, TRAINING_ITERATIONS,
-                      FREQUENCY_THRESHOLD, AMBIGUITY_THRESHOLD);
+                      frequencyThreshold, ambiguityThreshold, threadCount, seed,
+                      getCacheFeatures(options), getOffHeap(options), checkpointPath);
+                break;
+            }
+            case "dictionary": {
+                Map<String, String> options = parseOptions(args, 2);
+                if (options == null) {
+                    printUsage();
+                    break;
+                }
+
+                Path corpusPath = Paths.get(args[1]);
+                int threadCount = Integer.parseInt(options.getOrDefault("threads", "1"));
+                printDictionary(corpusPath, getFrequencyThreshold(options),
+                                getAmbiguityThreshold(options), threadCount);
+                break;
+            }
+            case "update": {
+                if (args.length < 4) {
+                    printUsage();
+                    break;
+                }
+
+                Map<String, String> options = parseOptions(args, 4);
+                if (options == null) {
+                    printUsage();
+                    break;
+                }
+
+                Path checkpointPath = Paths.get(args[1]);
+                Path corpusPath = Paths.get(args[2]);
+                Path modelPath = Paths.get(args[3]);
+                int iterations = Integer.parseInt(options.getOrDefault("iterations", "1"));
+                int threadCount = Integer.parseInt(options.getOrDefault("threads", "1"));
+                long seed = options.containsKey("seed")
+                            ? Long.parseLong(options.get("seed"))
+                            : new Random().nextLong();
+                update(checkpointPath, corpusPath, modelPath, iterations, threadCount, seed,
+                       getCacheFeatures(options), getOffHeap(options));
                 break;
             }
             case "test": {
@@ -202,9 +764,89 @@ public class CommandLineInterface {
                     break;
                 }
 
+                Map<String, String> options = parseOptions(args, 3);
+                if (options == null) {
+                    printUsage();
+                    break;
+                }
+
                 Path modelPath = Paths.get(args[1]);
                 Path corpusPath = Paths.get(args[2]);
-                test(modelPath, corpusPath);
+                int threadCount =
+                    options.containsKey("threads")
+                    ? Integer.parseInt(options.get("threads"))
+                    : Runtime.getRuntime().availableProcessors();
+                double minimumAccuracy =
+                    Double.parseDouble(options.getOrDefault("min-accuracy", "0"));
+                if (!test(modelPath, corpusPath, threadCount, minimumAccuracy))
+                    System.exit(2);
+                break;
+            }
+            case "serve": {
+                Map<String, String> options = parseOptions(args, 2);
+                if (options == null) {
+                    printUsage();
+                    break;
+                }
+
+                Path modelPath = Paths.get(args[1]);
+                int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+                int queueCapacity =
+                    options.containsKey("queue-capacity")
+                    ? Integer.parseInt(options.get("queue-capacity"))
+                    : TaggerServer.DEFAULT_QUEUE_CAPACITY;
+                int batchSize =
+                    options.containsKey("batch-size")
+                    ? Integer.parseInt(options.get("batch-size"))
+                    : TaggerServer.DEFAULT_BATCH_SIZE;
+                serve(modelPath, port, queueCapacity, batchSize, getOffHeap(options));
+                break;
+            }
+            case "convert": {
+                if (args.length < 3) {
+                    printUsage();
+                    break;
+                }
+
+                Path modelPath = Paths.get(args[1]);
+                Path mappedModelPath = Paths.get(args[2]);
+                convert(modelPath, mappedModelPath);
+                break;
+            }
+            case "compact": {
+                if (args.length < 3) {
+                    printUsage();
+                    break;
+                }
+
+                Map<String, String> options = parseOptions(args, 3);
+                if (options == null
+                    || options.containsKey("min-frequency") != options.containsKey("corpus"))
+                {
+                    printUsage();
+                    break;
+                }
+
+                Path modelPath = Paths.get(args[1]);
+                Path compactModelPath = Paths.get(args[2]);
+                float minimumWeight = Float.parseFloat(options.getOrDefault("min-weight", "0"));
+                int minimumFrequency =
+                    Integer.parseInt(options.getOrDefault("min-frequency", "0"));
+                Path frequencyCorpusPath = options.containsKey("corpus")
+                                           ? Paths.get(options.get("corpus"))
+                                           : null;
+                Quantization quantization =
+                    Quantization.valueOf(options.getOrDefault("quantize", "none")
+                                                .toUpperCase(Locale.ROOT));
+                Tagger.Format format =
+                    Tagger.Format.valueOf(options.getOrDefault("format", "msgpack")
+                                                 .toUpperCase(Locale.ROOT));
+                Path testCorpusPath = options.containsKey("test")
+                                      ? Paths.get(options.get("test"))
+                                      : null;
+                compact(modelPath, compactModelPath, minimumWeight,
+                        frequencyCorpusPath, minimumFrequency,
+                        quantization, format, testCorpusPath);
                 break;
             }
             default: {
@@ -0,0 +1,164 @@
+package com.turbolent.aptagger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Normalized words of a sentence, padded with the start and end markers,
+ * held as slices of a reused character buffer.
+ * <p>
+ * Numbers are normalized to {@link #NUMBER} and other words are lowercased,
+ * like {@link String#toLowerCase()}. ASCII words are normalized in place,
+ * without allocating, other words are lowercased by {@link String#toLowerCase()}.
+ */
+public class Context {
+    public static final String NUMBER = "!NUMBER";
+
+    private static final int INITIAL_CHAR_CAPACITY = 256;
+    private static final int INITIAL_WORD_CAPACITY = 32;
+
+    private char[] chars = new char[INITIAL_CHAR_CAPACITY];
+    // word i spans the characters from offsets[i] to offsets[i + 1]
+    private int[] offsets = new int[INITIAL_WORD_CAPACITY + 1];
+    private int size = 0;
+    // the hashes of the words and of their suffixes, for the ids of the features,
+    // computed once per sentence, on first use
+    private long[] wordHashes = new long[INITIAL_WORD_CAPACITY];
+    private long[] suffixHashes = new long[INITIAL_WORD_CAPACITY];
+    private boolean hashed = false;
+
+    // Returns if the given word matches the pattern [0-9][0-9,.]*
+    public static boolean isNumber(CharSequence word, int start, int end) {
+        if (start == end || !isDigit(word.charAt(start)))
+            return false;
+        for (int index = start + 1; index < end; index++) {
+            char c = word.charAt(index);
+            if (!isDigit(c) && c != ',' && c != '.')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAscii(CharSequence word) {
+        for (int index = 0; index < word.length(); index++) {
+            if (word.charAt(index) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    // These locales lowercase some ASCII letters to other letters
+    private static boolean hasSpecialCasing(Locale locale) {
+        String language = locale.getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public char[] getChars() {
+        return this.chars;
+    }
+
+    public int getStart(int index) {
+        return this.offsets[index];
+    }
+
+    public int getEnd(int index) {
+        return this.offsets[index + 1];
+    }
+
+    // Returns the hash of the word, which the ids of its features combine, see Features
+    public long getWordHash(int index) {
+        if (!this.hashed)
+            hash();
+        return this.wordHashes[index];
+    }
+
+    // Returns the hash of the suffix of the word, see getWordHash
+    public long getSuffixHash(int index) {
+        if (!this.hashed)
+            hash();
+        return this.suffixHashes[index];
+    }
+
+    private void hash() {
+        int size = this.size;
+        if (this.wordHashes.length < size) {
+            this.wordHashes = new long[this.offsets.length];
+            this.suffixHashes = new long[this.offsets.length];
+        }
+        char[] chars = this.chars;
+        int[] offsets = this.offsets;
+        for (int index = 0; index < size; index++) {
+            int start = offsets[index];
+            int end = offsets[index + 1];
+            this.wordHashes[index] = Features.hash(chars, start, end);
+            this.suffixHashes[index] =
+                Features.hash(chars, Math.max(start, end - Features.SUFFIX_LENGTH), end);
+        }
+        this.hashed = true;
+    }
+
+    public String get(int index) {
+        int start = getStart(index);
+        return new String(this.chars, start, getEnd(index) - start);
+    }
+
+    // Fills the context with the normalized forms of the given words
+    public void reset(List<String> words) {
+        int wordCount = Tagger.START.length + words.size() + Tagger.END.length;
+        if (this.offsets.length <= wordCount)
+            this.offsets = new int[Math.max(wordCount + 1, this.offsets.length * 2)];
+        this.size = 0;
+        this.hashed = false;
+
+        for (String start : Tagger.START)
+            add(start);
+
+        boolean asciiCasing = !hasSpecialCasing(Locale.getDefault());
+        for (int index = 0; index < words.size(); index++) {
+            String word = words.get(index);
+            int length = word.length();
+            if (isNumber(word, 0, length))
+                add(NUMBER);
+            else if (asciiCasing && isAscii(word))
+                addLowerCase(word, length);
+            else
+                add(word.toLowerCase());
+        }
+
+        for (String end : Tagger.END)
+            add(end);
+    }
+
+    private int reserve(int length) {
+        int start = this.offsets[this.size];
+        if (start + length > this.chars.length)
+            this.chars = Arrays.copyOf(this.chars, Math.max(start + length, this.chars.length * 2));
+        return start;
+    }
+
+    private void add(String word) {
+        int length = word.length();
+        int start = reserve(length);
+        word.getChars(0, length, this.chars, start);
+        this.offsets[++this.size] = start + length;
+    }
+
+    private void addLowerCase(String word, int length) {
+        int start = reserve(length);
+        char[] chars = this.chars;
+        for (int index = 0; index < length; index++) {
+            char c = word.charAt(index);
+            chars[start + index] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        this.offsets[++this.size] = start + length;
+    }
+}
@@ -0,0 +1,420 @@
+package com.turbolent.aptagger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * Tagged sentences read from a memory-mapped corpus file, which contains one sentence
+ * per line, in the format of {@link CommandLineInterface#asSentence}.
+ * <p>
+ * Words and tags are interned while parsing the mapped bytes, so each distinct word
+ * and tag is decoded only once. The tokens are held as word and tag ids in chunks
+ * of flat arrays, so a corpus may have more tokens than an array can hold.
+ * The sentences of the list are views of these arrays, in an order which can be
+ * shuffled, e.g. by {@link java.util.Collections#shuffle}, without moving the tokens.
+ */
+public class Corpus extends AbstractList<TaggedSentence> implements RandomAccess {
+    // lines must fit into a window, so windows are large
+    private static final int WINDOW_SIZE = 1 << 30;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    static final int CHUNK_BITS = 20;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // some VMs reserve header words in arrays
+    static final int MAXIMUM_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final class Sentence extends TaggedSentence {
+        final Corpus corpus;
+        final int index;
+
+        Sentence(Corpus corpus, int index, List<String> words, List<String> tags) {
+            super(words, tags);
+            this.corpus = corpus;
+            this.index = index;
+        }
+    }
+
+    private static final class Strings extends AbstractList<String> implements RandomAccess {
+        private final String[] strings;
+        private final int[][] ids;
+        private final long start;
+        private final int size;
+
+        Strings(String[] strings, int[][] ids, long start, int size) {
+            this.strings = strings;
+            this.ids = ids;
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= this.size)
+                throw new IndexOutOfBoundsException("Index: " + index);
+            return this.strings[getId(this.ids, this.start + index)];
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+    }
+
+    // Bytes of a mapped window, as characters
+    private static final class Bytes implements CharSequence {
+        private final ByteBuffer buffer;
+
+        Bytes(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (this.buffer.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return decode(start, end);
+        }
+
+        String decode(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            for (int index = start; index < end; index++)
+                bytes[index - start] = this.buffer.get(index);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns the length to grow an array of the given length to, so it holds
+     * at least the given number of elements.
+     *
+     * @throws IOException if no array can hold the given number of elements
+     */
+    static int getCapacity(int length, long required, String elements) throws IOException {
+        if (required > MAXIMUM_ARRAY_SIZE) {
+            throw new IOException("Corpus has too many " + elements + ": more than "
+                                  + MAXIMUM_ARRAY_SIZE);
+        }
+        return (int) Math.min(MAXIMUM_ARRAY_SIZE, Math.max(required, length * 2L));
+    }
+
+    private static int getId(int[][] ids, long token) {
+        return ids[(int) (token >>> CHUNK_BITS)][(int) token & CHUNK_MASK];
+    }
+
+    // Interns byte slices as ids, and decodes each distinct slice once
+    private static final class Vocabulary {
+        private String[] strings = new String[INITIAL_CAPACITY];
+        private byte[] bytes = new byte[INITIAL_CAPACITY * 8];
+        private int[] offsets = new int[INITIAL_CAPACITY + 1];
+        private int size = 0;
+        private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+        Vocabulary() {
+            Arrays.fill(this.slots, -1);
+        }
+
+        private static int hash(ByteBuffer buffer, int start, int end) {
+            int hash = 0x811c9dc5;
+            for (int index = start; index < end; index++)
+                hash = (hash ^ (buffer.get(index) & 0xff)) * 0x01000193;
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int hash(byte[] bytes, int start, int end) {
+            int hash = 0x811c9dc5;
+            for (int index = start; index < end; index++)
+                hash = (hash ^ (bytes[index] & 0xff)) * 0x01000193;
+            return hash ^ (hash >>> 16);
+        }
+
+        private boolean matches(int id, ByteBuffer buffer, int start, int end) {
+            int offset = this.offsets[id];
+            if (this.offsets[id + 1] - offset != end - start)
+                return false;
+            for (int index = start; index < end; index++) {
+                if (this.bytes[offset++] != buffer.get(index))
+                    return false;
+            }
+            return true;
+        }
+
+        int intern(Bytes chars, int start, int end) throws IOException {
+            ByteBuffer buffer = chars.buffer;
+            int mask = this.slots.length - 1;
+            int slot = hash(buffer, start, end) & mask;
+            while (true) {
+                int id = this.slots[slot];
+                if (id < 0)
+                    break;
+                if (matches(id, buffer, start, end))
+                    return id;
+                slot = (slot + 1) & mask;
+            }
+
+            int id = this.size;
+            if (id == this.strings.length) {
+                // the offsets need one more element
+                int capacity = getCapacity(id, id + 2L, "distinct words or tags") - 1;
+                this.strings = Arrays.copyOf(this.strings, capacity);
+                this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+            }
+            int offset = this.offsets[id];
+            int length = end - start;
+            if (offset + length > this.bytes.length) {
+                int capacity = getCapacity(this.bytes.length, (long) offset + length,
+                                           "bytes of distinct words or tags");
+                this.bytes = Arrays.copyOf(this.bytes, capacity);
+            }
+            for (int index = start; index < end; index++)
+                this.bytes[offset + index - start] = buffer.get(index);
+            this.offsets[id + 1] = offset + length;
+            this.strings[id] = chars.decode(start, end);
+            this.slots[slot] = id;
+            this.size += 1;
+
+            if (this.size * 2L > this.slots.length)
+                grow();
+            return id;
+        }
+
+        private void grow() throws IOException {
+            // the slots stay a power of two
+            if (this.slots.length > MAXIMUM_ARRAY_SIZE / 2)
+                throw new IOException("Corpus has too many distinct words or tags");
+            int[] slots = new int[this.slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int id = 0; id < this.size; id++) {
+                int slot = hash(this.bytes, this.offsets[id], this.offsets[id + 1]) & mask;
+                while (slots[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                slots[slot] = id;
+            }
+            this.slots = slots;
+        }
+
+        String[] getStrings() {
+            return Arrays.copyOf(this.strings, this.size);
+        }
+    }
+
+    public final String[] words;
+    public final String[] tags;
+    private final int[][] wordIds;
+    private final int[][] tagIds;
+    // sentence i spans the tokens from offsets[i] to offsets[i + 1]
+    private final long[] offsets;
+    private final int[] order;
+
+    private Corpus(String[] words, String[] tags, int[][] wordIds, int[][] tagIds,
+                   long[] offsets)
+    {
+        this.words = words;
+        this.tags = tags;
+        this.wordIds = wordIds;
+        this.tagIds = tagIds;
+        this.offsets = offsets;
+        this.order = new int[offsets.length - 1];
+        for (int index = 0; index < this.order.length; index++)
+            this.order[index] = index;
+    }
+
+    private static final class Reader {
+        final Vocabulary words = new Vocabulary();
+        final Vocabulary tags = new Vocabulary();
+        int[][] wordIds = new int[INITIAL_CAPACITY][];
+        int[][] tagIds = new int[INITIAL_CAPACITY][];
+        long tokenCount = 0;
+        long[] offsets = new long[INITIAL_CAPACITY + 1];
+        int sentenceCount = 0;
+
+        void addToken(int wordId, int tagId) throws IOException {
+            int chunk = (int) (this.tokenCount >>> CHUNK_BITS);
+            int index = (int) this.tokenCount & CHUNK_MASK;
+            if (index == 0) {
+                if (chunk == this.wordIds.length) {
+                    int capacity = getCapacity(chunk, chunk + 1L, "token chunks");
+                    this.wordIds = Arrays.copyOf(this.wordIds, capacity);
+                    this.tagIds = Arrays.copyOf(this.tagIds, capacity);
+                }
+                this.wordIds[chunk] = new int[CHUNK_SIZE];
+                this.tagIds[chunk] = new int[CHUNK_SIZE];
+            }
+            this.wordIds[chunk][index] = wordId;
+            this.tagIds[chunk][index] = tagId;
+            this.tokenCount += 1;
+        }
+
+        void endSentence() throws IOException {
+            // the offsets need one more element than the sentences
+            if (this.sentenceCount + 1 == this.offsets.length) {
+                int capacity = getCapacity(this.offsets.length, this.sentenceCount + 2L,
+                                           "sentences");
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+            }
+            this.offsets[++this.sentenceCount] = this.tokenCount;
+        }
+
+        // Returns the given chunks, without the unused ones
+        int[][] getChunks(int[][] chunks) {
+            int chunkCount = (int) ((this.tokenCount + CHUNK_MASK) >>> CHUNK_BITS);
+            return Arrays.copyOf(chunks, chunkCount);
+        }
+
+        // Parses the tokens of the sentence in the given range, like asSentence
+        void readSentence(Bytes chars, int start, int end) throws IOException {
+            char sentenceSeparator = CommandLineInterface.SENTENCE_SEPARATOR_CHAR;
+            char tokenSeparator = CommandLineInterface.TOKEN_SEPARATOR_CHAR;
+
+            int tokensEnd = Tokenizer.getPartsEnd(chars, start, end, sentenceSeparator);
+            for (int tokenStart = start; tokenStart <= tokensEnd; ) {
+                int tokenEnd = Tokenizer.getPartEnd(chars, tokenStart, tokensEnd,
+                                                    sentenceSeparator);
+
+                int partsEnd = Tokenizer.getPartsEnd(chars, tokenStart, tokenEnd,
+                                                     tokenSeparator);
+                int wordEnd = partsEnd < 0
+                              ? partsEnd
+                              : Tokenizer.getPartEnd(chars, tokenStart, partsEnd,
+                                                     tokenSeparator);
+                if (wordEnd < 0
+                    || wordEnd == partsEnd
+                    || Tokenizer.getPartEnd(chars, wordEnd + 1, partsEnd,
+                                            tokenSeparator) != partsEnd)
+                {
+                    String message =
+                        String.format("Invalid token \"%s\" in sentence \"%s\"",
+                                      chars.decode(tokenStart, tokenEnd),
+                                      chars.decode(start, end));
+                    throw new RuntimeException(message);
+                }
+
+                addToken(this.words.intern(chars, tokenStart, wordEnd),
+                         this.tags.intern(chars, wordEnd + 1, partsEnd));
+                tokenStart = tokenEnd + 1;
+            }
+            endSentence();
+        }
+
+        // Reads the lines of the window, which are terminated like for BufferedReader,
+        // and returns the start of the first line which is not complete in the window
+        int readLines(Bytes chars, boolean last) throws IOException {
+            int length = chars.length();
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && !isLineBreak(chars.charAt(lineEnd)))
+                    lineEnd += 1;
+
+                // the line might continue, or its carriage return be followed
+                // by a line feed, in the next window
+                if (!last
+                    && (lineEnd == length
+                        || (lineEnd == length - 1 && chars.charAt(lineEnd) == '\r')))
+                {
+                    break;
+                }
+
+                readSentence(chars, lineStart, lineEnd);
+
+                lineStart = lineEnd + 1;
+                if (lineStart < length
+                    && chars.charAt(lineEnd) == '\r'
+                    && chars.charAt(lineStart) == '\n')
+                {
+                    lineStart += 1;
+                }
+            }
+            return lineStart;
+        }
+
+        private static boolean isLineBreak(char c) {
+            return c == '\n' || c == '\r';
+        }
+    }
+
+    public static Corpus read(Path path) throws IOException {
+        Reader reader = new Reader();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long windowSize = Math.min(WINDOW_SIZE, size - position);
+                boolean last = position + windowSize == size;
+                ByteBuffer window =
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                int end = reader.readLines(new Bytes(window), last);
+                if (end == 0)
+                    throw new IOException("Corpus line too long at byte " + position);
+                position += end;
+            }
+        }
+
+        return new Corpus(reader.words.getStrings(), reader.tags.getStrings(),
+                          reader.getChunks(reader.wordIds),
+                          reader.getChunks(reader.tagIds),
+                          Arrays.copyOf(reader.offsets, reader.sentenceCount + 1));
+    }
+
+    @Override
+    public int size() {
+        return this.order.length;
+    }
+
+    public long getTokenCount() {
+        return this.offsets[this.offsets.length - 1];
+    }
+
+    @Override
+    public TaggedSentence get(int index) {
+        int sentenceIndex = this.order[index];
+        long start = this.offsets[sentenceIndex];
+        int size = (int) (this.offsets[sentenceIndex + 1] - start);
+        return new Sentence(this, sentenceIndex,
+                            new Strings(this.words, this.wordIds, start, size),
+                            new Strings(this.tags, this.tagIds, start, size));
+    }
+
+    // Shuffles the sentences like Collections.shuffle, by permuting their order
+    public void shuffle(Random random) {
+        int[] order = this.order;
+        for (int index = order.length; index > 1; index--) {
+            int other = random.nextInt(index);
+            int sentenceIndex = order[index - 1];
+            order[index - 1] = order[other];
+            order[other] = sentenceIndex;
+        }
+    }
+
+    /**
+     * Replaces the sentence at the given position, which is only supported
+     * for sentences of this corpus, so the sentences can be reordered.
+     */
+    @Override
+    public TaggedSentence set(int index, TaggedSentence sentence) {
+        if (!(sentence instanceof Sentence) || ((Sentence) sentence).corpus != this) {
+            throw new IllegalArgumentException("Sentence is not part of the corpus");
+        }
+
+        TaggedSentence previous = get(index);
+        this.order[index] = ((Sentence) sentence).index;
+        return previous;
+    }
+}
@@ -0,0 +1,96 @@
+package com.turbolent.aptagger;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+// Allocates buffers outside of the heap, in the native byte order.
+// Buffers are cleared through Buffer, whose methods the typed buffers
+// only override since Java 9, so the classes also link on Java 8
+final class DirectBuffers {
+    private DirectBuffers() {
+    }
+
+    static ByteBuffer allocate(long size) {
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Buffer too large: " + size + " bytes");
+        return ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+    }
+
+    static LongBuffer copyOf(long[] values) {
+        LongBuffer buffer = allocate((long) values.length * Long.BYTES).asLongBuffer();
+        ((Buffer) buffer.put(values)).clear();
+        return buffer;
+    }
+
+    static IntBuffer copyOf(int[] values) {
+        IntBuffer buffer = allocate((long) values.length * Integer.BYTES).asIntBuffer();
+        ((Buffer) buffer.put(values)).clear();
+        return buffer;
+    }
+
+    static FloatBuffer copyOf(float[] values) {
+        FloatBuffer buffer = allocate((long) values.length * Float.BYTES).asFloatBuffer();
+        ((Buffer) buffer.put(values)).clear();
+        return buffer;
+    }
+
+    static ShortBuffer copyOf(short[] values) {
+        ShortBuffer buffer = allocate((long) values.length * Short.BYTES).asShortBuffer();
+        ((Buffer) buffer.put(values)).clear();
+        return buffer;
+    }
+
+    static ByteBuffer copyOf(byte[] values) {
+        ByteBuffer buffer = allocate(values.length);
+        ((Buffer) buffer.put(values)).clear();
+        return buffer;
+    }
+
+    // The buffer copies read all of the given buffer, from a duplicate,
+    // so its position stays unchanged
+
+    static LongBuffer copyOf(LongBuffer values) {
+        LongBuffer source = values.duplicate();
+        ((Buffer) source).clear();
+        LongBuffer buffer = allocate((long) source.capacity() * Long.BYTES).asLongBuffer();
+        ((Buffer) buffer.put(source)).clear();
+        return buffer;
+    }
+
+    static IntBuffer copyOf(IntBuffer values) {
+        IntBuffer source = values.duplicate();
+        ((Buffer) source).clear();
+        IntBuffer buffer = allocate((long) source.capacity() * Integer.BYTES).asIntBuffer();
+        ((Buffer) buffer.put(source)).clear();
+        return buffer;
+    }
+
+    static FloatBuffer copyOf(FloatBuffer values) {
+        FloatBuffer source = values.duplicate();
+        ((Buffer) source).clear();
+        FloatBuffer buffer = allocate((long) source.capacity() * Float.BYTES).asFloatBuffer();
+        ((Buffer) buffer.put(source)).clear();
+        return buffer;
+    }
+
+    static ShortBuffer copyOf(ShortBuffer values) {
+        ShortBuffer source = values.duplicate();
+        ((Buffer) source).clear();
+        ShortBuffer buffer = allocate((long) source.capacity() * Short.BYTES).asShortBuffer();
+        ((Buffer) buffer.put(source)).clear();
+        return buffer;
+    }
+
+    static ByteBuffer copyOf(ByteBuffer values) {
+        ByteBuffer source = values.duplicate();
+        ((Buffer) source).clear();
+        ByteBuffer buffer = allocate(source.capacity());
+        ((Buffer) buffer.put(source)).clear();
+        return buffer;
+    }
+}
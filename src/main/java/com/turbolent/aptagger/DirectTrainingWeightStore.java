@@ -0,0 +1,217 @@
+package com.turbolent.aptagger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Training state of the (feature, label) weights outside of the heap, in direct buffers,
+ * laid out like {@link HeapTrainingWeightStore}: a segmented open-addressing table
+ * of features, and entries growing by pages. Each slot of the table packs a feature id
+ * and its first entry, and each entry packs its label id, the next entry, the weight,
+ * the total and the timestamp into one record.
+ * <p>
+ * The heap only holds one buffer per segment and per page, so its size doesn't depend
+ * on the number of weights, and the garbage collector never scans the weights.
+ */
+public class DirectTrainingWeightStore implements TrainingWeightStore {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 10;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // slot layout
+    private static final int KEY = 0;
+    private static final int HEAD = 8;
+    private static final int SLOT_SIZE = 12;
+
+    // entry layout
+    private static final int LABEL = 0;
+    private static final int NEXT = 4;
+    private static final int WEIGHT = 8;
+    private static final int TOTAL = 12;
+    private static final int TIMESTAMP = 16;
+    private static final int ENTRY_SIZE = 20;
+
+    private final ByteBuffer[] segments = new ByteBuffer[SEGMENT_COUNT];
+    private final int[] capacities = new int[SEGMENT_COUNT];
+    private final int[] sizes = new int[SEGMENT_COUNT];
+    private int featureCount = 0;
+
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private int entryCount = 0;
+
+    public DirectTrainingWeightStore() {
+        for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+            this.segments[segment] =
+                DirectBuffers.allocate((long) INITIAL_SEGMENT_CAPACITY * SLOT_SIZE);
+            this.capacities[segment] = INITIAL_SEGMENT_CAPACITY;
+        }
+    }
+
+    @Override
+    public TrainingWeightStore newStore() {
+        return new DirectTrainingWeightStore();
+    }
+
+    private static int getSegment(long feature) {
+        return (int) (feature >>> (Long.SIZE - SEGMENT_BITS));
+    }
+
+    // Returns the byte offset of the slot of the given feature, which is empty
+    // if the feature is not in the table
+    private static int getSlot(ByteBuffer slots, int capacity, long feature) {
+        int mask = capacity - 1;
+        int slot = FeatureIndex.hash(feature) & mask;
+        while (true) {
+            long key = slots.getLong(slot * SLOT_SIZE + KEY);
+            if (key == 0 || key == feature)
+                return slot * SLOT_SIZE;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return this.featureCount;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    @Override
+    public int getFirstEntry(long feature) {
+        int segment = getSegment(feature);
+        ByteBuffer slots = this.segments[segment];
+        int slot = getSlot(slots, this.capacities[segment], feature);
+        if (slots.getLong(slot + KEY) == 0)
+            return -1;
+        return slots.getInt(slot + HEAD);
+    }
+
+    @Override
+    public int getOrAddEntry(long feature, int label) {
+        int segment = getSegment(feature);
+        ByteBuffer slots = this.segments[segment];
+        int slot = getSlot(slots, this.capacities[segment], feature);
+        if (slots.getLong(slot + KEY) == 0) {
+            if ((this.sizes[segment] + 1) * 2 > this.capacities[segment]) {
+                growSegment(segment);
+                slots = this.segments[segment];
+                slot = getSlot(slots, this.capacities[segment], feature);
+            }
+            slots.putLong(slot + KEY, feature);
+            slots.putInt(slot + HEAD, -1);
+            this.sizes[segment] += 1;
+            this.featureCount += 1;
+        }
+
+        int head = slots.getInt(slot + HEAD);
+        int entry = head;
+        while (entry >= 0 && getLabel(entry) != label)
+            entry = getNext(entry);
+        if (entry >= 0)
+            return entry;
+
+        entry = addEntry(label, head);
+        slots.putInt(slot + HEAD, entry);
+        return entry;
+    }
+
+    private void growSegment(int segment) {
+        ByteBuffer oldSlots = this.segments[segment];
+        int oldCapacity = this.capacities[segment];
+        int capacity = oldCapacity * 2;
+        ByteBuffer slots = DirectBuffers.allocate((long) capacity * SLOT_SIZE);
+        for (int oldSlot = 0; oldSlot < oldCapacity * SLOT_SIZE; oldSlot += SLOT_SIZE) {
+            long feature = oldSlots.getLong(oldSlot + KEY);
+            if (feature == 0)
+                continue;
+            int slot = getSlot(slots, capacity, feature);
+            slots.putLong(slot + KEY, feature);
+            slots.putInt(slot + HEAD, oldSlots.getInt(oldSlot + HEAD));
+        }
+        this.segments[segment] = slots;
+        this.capacities[segment] = capacity;
+    }
+
+    private int addEntry(int label, int next) {
+        int entry = this.entryCount;
+        int page = entry >>> PAGE_BITS;
+        if (page == this.pages.length)
+            this.pages = Arrays.copyOf(this.pages, Math.max(1, page * 2));
+        if (this.pages[page] == null)
+            this.pages[page] = DirectBuffers.allocate((long) PAGE_SIZE * ENTRY_SIZE);
+
+        int offset = (entry & PAGE_MASK) * ENTRY_SIZE;
+        ByteBuffer entries = this.pages[page];
+        entries.putInt(offset + LABEL, label);
+        entries.putInt(offset + NEXT, next);
+        this.entryCount += 1;
+        return entry;
+    }
+
+    @Override
+    public void forEachFeature(FeatureVisitor visitor) {
+        for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+            ByteBuffer slots = this.segments[segment];
+            int end = this.capacities[segment] * SLOT_SIZE;
+            for (int slot = 0; slot < end; slot += SLOT_SIZE) {
+                long feature = slots.getLong(slot + KEY);
+                if (feature != 0)
+                    visitor.visit(feature, slots.getInt(slot + HEAD));
+            }
+        }
+    }
+
+    private ByteBuffer getPage(int entry) {
+        return this.pages[entry >>> PAGE_BITS];
+    }
+
+    private static int getOffset(int entry) {
+        return (entry & PAGE_MASK) * ENTRY_SIZE;
+    }
+
+    @Override
+    public int getLabel(int entry) {
+        return getPage(entry).getInt(getOffset(entry) + LABEL);
+    }
+
+    @Override
+    public int getNext(int entry) {
+        return getPage(entry).getInt(getOffset(entry) + NEXT);
+    }
+
+    @Override
+    public float getWeight(int entry) {
+        return getPage(entry).getFloat(getOffset(entry) + WEIGHT);
+    }
+
+    @Override
+    public void setWeight(int entry, float weight) {
+        getPage(entry).putFloat(getOffset(entry) + WEIGHT, weight);
+    }
+
+    @Override
+    public float getTotal(int entry) {
+        return getPage(entry).getFloat(getOffset(entry) + TOTAL);
+    }
+
+    @Override
+    public void setTotal(int entry, float total) {
+        getPage(entry).putFloat(getOffset(entry) + TOTAL, total);
+    }
+
+    @Override
+    public int getTimestamp(int entry) {
+        return getPage(entry).getInt(getOffset(entry) + TIMESTAMP);
+    }
+
+    @Override
+    public void setTimestamp(int entry, int timestamp) {
+        getPage(entry).putInt(getOffset(entry) + TIMESTAMP, timestamp);
+    }
+}
@@ -0,0 +1,248 @@
+package com.turbolent.aptagger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the tags of a tagger with the tags of a corpus: counts the correct tags
+ * of the words found in the tag dictionary and of the predicted ones, and counts
+ * the predicted tag of each correct tag in a confusion matrix.
+ * <p>
+ * Not thread-safe: threads evaluate into their own instances, which are merged
+ * with {@link #addAll}.
+ */
+public class Evaluation {
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final List<String> tags = new ArrayList<>();
+    // the count of each correct tag (row) and predicted tag (column)
+    private long[] confusion = new long[0];
+    private int capacity = 0;
+
+    private long sentenceCount = 0;
+    private long dictionaryCount = 0;
+    private long dictionaryCorrect = 0;
+    private long predictedCount = 0;
+    private long predictedCorrect = 0;
+    private long nanoseconds = 0;
+
+    private int getTagId(String tag) {
+        Integer tagId = this.tagIds.get(tag);
+        if (tagId != null)
+            return tagId;
+
+        int newTagId = this.tags.size();
+        if (newTagId == this.capacity) {
+            int capacity = Math.max(64, this.capacity * 2);
+            long[] confusion = new long[capacity * capacity];
+            for (int row = 0; row < this.capacity; row++)
+                System.arraycopy(this.confusion, row * this.capacity,
+                                 confusion, row * capacity, this.capacity);
+            this.confusion = confusion;
+            this.capacity = capacity;
+        }
+        this.tagIds.put(tag, newTagId);
+        this.tags.add(tag);
+        return newTagId;
+    }
+
+    private void add(String tag, String guess, long count) {
+        // both ids first, as a new tag may grow the matrix
+        int row = getTagId(tag);
+        int column = getTagId(guess);
+        this.confusion[row * this.capacity + column] += count;
+    }
+
+    // Adds the given tags of the tagger for the given sentence
+    public void add(Tagger tagger, TaggedSentence sentence, List<String> guesses) {
+        for (int index = 0; index < sentence.words.size(); index++) {
+            String tag = sentence.tags.get(index);
+            String guess = guesses.get(index);
+            boolean correct = guess.equals(tag);
+            if (tagger.tags.containsKey(sentence.words.get(index))) {
+                this.dictionaryCount += 1;
+                if (correct)
+                    this.dictionaryCorrect += 1;
+            } else {
+                this.predictedCount += 1;
+                if (correct)
+                    this.predictedCorrect += 1;
+            }
+            add(tag, guess, 1);
+        }
+        this.sentenceCount += 1;
+    }
+
+    public void addAll(Evaluation other) {
+        for (int row = 0; row < other.tags.size(); row++) {
+            for (int column = 0; column < other.tags.size(); column++) {
+                long count = other.confusion[row * other.capacity + column];
+                if (count > 0)
+                    add(other.tags.get(row), other.tags.get(column), count);
+            }
+        }
+        this.sentenceCount += other.sentenceCount;
+        this.dictionaryCount += other.dictionaryCount;
+        this.dictionaryCorrect += other.dictionaryCorrect;
+        this.predictedCount += other.predictedCount;
+        this.predictedCorrect += other.predictedCorrect;
+    }
+
+    // Sets the time which the tagging took, for the throughput
+    public void setNanoseconds(long nanoseconds) {
+        this.nanoseconds = nanoseconds;
+    }
+
+    public long getSentenceCount() {
+        return this.sentenceCount;
+    }
+
+    public long getTokenCount() {
+        return this.dictionaryCount + this.predictedCount;
+    }
+
+    public long getCorrectCount() {
+        return this.dictionaryCorrect + this.predictedCorrect;
+    }
+
+    public double getAccuracy() {
+        return getRatio(getCorrectCount(), getTokenCount());
+    }
+
+    public double getDictionaryAccuracy() {
+        return getRatio(this.dictionaryCorrect, this.dictionaryCount);
+    }
+
+    public double getPredictedAccuracy() {
+        return getRatio(this.predictedCorrect, this.predictedCount);
+    }
+
+    public double getTokensPerSecond() {
+        return getRatio(getTokenCount() * 1e9, this.nanoseconds);
+    }
+
+    // Returns how often the tagger predicted the given tag for words with the given correct tag
+    public long getCount(String tag, String guess) {
+        Integer row = this.tagIds.get(tag);
+        Integer column = this.tagIds.get(guess);
+        if (row == null || column == null)
+            return 0;
+        return this.confusion[row * this.capacity + column];
+    }
+
+    private static double getRatio(double count, double total) {
+        return total == 0 ? Double.NaN : count / total;
+    }
+
+    private static void appendString(StringBuilder builder, String string) {
+        builder.append('"');
+        for (int index = 0; index < string.length(); index++) {
+            char c = string.charAt(index);
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c < 0x20)
+                builder.append(String.format("\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    // NaN, i.e. an undefined ratio, is written as null
+    private static void appendNumber(StringBuilder builder, double number) {
+        if (Double.isNaN(number) || Double.isInfinite(number))
+            builder.append("null");
+        else
+            builder.append(String.format(Locale.ROOT, "%.6f", number));
+    }
+
+    private static void appendAccuracy(StringBuilder builder, String name,
+                                       long correct, long total)
+    {
+        appendString(builder, name);
+        builder.append(":{\"tokens\":").append(total)
+               .append(",\"correct\":").append(correct)
+               .append(",\"accuracy\":");
+        appendNumber(builder, getRatio(correct, total));
+        builder.append('}');
+    }
+
+    /**
+     * Returns the evaluation as a JSON object, with the overall, dictionary and predicted
+     * accuracies, the throughput, the precision and recall of each tag, and the confusion
+     * matrix, which maps each correct tag to the counts of the predicted tags.
+     * Tags are sorted, and undefined ratios are null.
+     */
+    public String toJson() {
+        Map<String, Integer> sortedTagIds = new TreeMap<>(this.tagIds);
+        int tagCount = this.tags.size();
+        long[] goldCounts = new long[tagCount];
+        long[] guessCounts = new long[tagCount];
+        for (int row = 0; row < tagCount; row++) {
+            for (int column = 0; column < tagCount; column++) {
+                long count = this.confusion[row * this.capacity + column];
+                goldCounts[row] += count;
+                guessCounts[column] += count;
+            }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"sentences\":").append(this.sentenceCount);
+        builder.append(",\"seconds\":");
+        appendNumber(builder, this.nanoseconds / 1e9);
+        builder.append(",\"tokensPerSecond\":");
+        appendNumber(builder, getTokensPerSecond());
+        builder.append(',');
+        appendAccuracy(builder, "total", getCorrectCount(), getTokenCount());
+        builder.append(',');
+        appendAccuracy(builder, "dictionary", this.dictionaryCorrect, this.dictionaryCount);
+        builder.append(',');
+        appendAccuracy(builder, "predicted", this.predictedCorrect, this.predictedCount);
+
+        builder.append(",\"tags\":{");
+        String separator = "";
+        for (Map.Entry<String, Integer> entry : sortedTagIds.entrySet()) {
+            int tagId = entry.getValue();
+            long correct = this.confusion[tagId * this.capacity + tagId];
+            builder.append(separator);
+            appendString(builder, entry.getKey());
+            builder.append(":{\"gold\":").append(goldCounts[tagId])
+                   .append(",\"predicted\":").append(guessCounts[tagId])
+                   .append(",\"correct\":").append(correct)
+                   .append(",\"precision\":");
+            appendNumber(builder, getRatio(correct, guessCounts[tagId]));
+            builder.append(",\"recall\":");
+            appendNumber(builder, getRatio(correct, goldCounts[tagId]));
+            builder.append('}');
+            separator = ",";
+        }
+
+        builder.append("},\"confusion\":{");
+        separator = "";
+        for (Map.Entry<String, Integer> rowEntry : sortedTagIds.entrySet()) {
+            int row = rowEntry.getValue();
+            if (goldCounts[row] == 0)
+                continue;
+            builder.append(separator);
+            appendString(builder, rowEntry.getKey());
+            builder.append(":{");
+            String columnSeparator = "";
+            for (Map.Entry<String, Integer> columnEntry : sortedTagIds.entrySet()) {
+                long count = this.confusion[row * this.capacity + columnEntry.getValue()];
+                if (count == 0)
+                    continue;
+                builder.append(columnSeparator);
+                appendString(builder, columnEntry.getKey());
+                builder.append(':').append(count);
+                columnSeparator = ",";
+            }
+            builder.append('}');
+            separator = ",";
+        }
+        builder.append("}}");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,188 @@
+package com.turbolent.aptagger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The static features of training sentences, see {@link Features#extractStatic},
+ * extracted once and reused in each training iteration. Training on cached sentences
+ * only computes the features of the previous tags, from tables of the labels.
+ * <p>
+ * Sentences are held in blocks of primitive arrays: the label id of the tag of each token
+ * and of its tag in the tag dictionary, if any, and the static feature ids and
+ * the hash of the normalized word of each token which is not in the tag dictionary.
+ * A block is filled by one thread and not changed once it is added, so blocks can be
+ * extracted by other threads than the training one.
+ */
+final class FeatureCache {
+    // sentences per block
+    static final int BLOCK_SIZE = 256;
+    private static final int INITIAL_TOKEN_CAPACITY = BLOCK_SIZE * 8;
+
+    static final class Block {
+        int sentenceCount = 0;
+        // the tokens of sentence s are the ones from tokenStarts[s] to tokenStarts[s + 1],
+        // and its predicted tokens the ones from predictedStarts[s] to predictedStarts[s + 1]
+        final int[] tokenStarts = new int[BLOCK_SIZE + 1];
+        final int[] predictedStarts = new int[BLOCK_SIZE + 1];
+        int[] labels = new int[INITIAL_TOKEN_CAPACITY];
+        // -1 for predicted tokens
+        int[] dictionaryLabels = new int[INITIAL_TOKEN_CAPACITY];
+        // Features.STATIC_COUNT ids per predicted token
+        long[] features = new long[INITIAL_TOKEN_CAPACITY * Features.STATIC_COUNT];
+        // the hash of the normalized word of each predicted token, see Context#getWordHash
+        long[] wordHashes = new long[INITIAL_TOKEN_CAPACITY];
+
+        // Shrinks the arrays to the sentences added so far, when the block is complete
+        void trim() {
+            int tokenCount = this.tokenStarts[this.sentenceCount];
+            int predictedCount = this.predictedStarts[this.sentenceCount];
+            this.labels = Arrays.copyOf(this.labels, tokenCount);
+            this.dictionaryLabels = Arrays.copyOf(this.dictionaryLabels, tokenCount);
+            this.features = Arrays.copyOf(this.features, predictedCount * Features.STATIC_COUNT);
+            this.wordHashes = Arrays.copyOf(this.wordHashes, predictedCount);
+        }
+
+        private void reserve(int tokenCount) {
+            int capacity = this.tokenStarts[this.sentenceCount] + tokenCount;
+            if (capacity > this.labels.length) {
+                capacity = Math.max(capacity, this.labels.length * 2);
+                this.labels = Arrays.copyOf(this.labels, capacity);
+                this.dictionaryLabels = Arrays.copyOf(this.dictionaryLabels, capacity);
+            }
+
+            capacity = this.predictedStarts[this.sentenceCount] + tokenCount;
+            if (capacity > this.wordHashes.length) {
+                capacity = Math.max(capacity, this.wordHashes.length * 2);
+                this.features = Arrays.copyOf(this.features, capacity * Features.STATIC_COUNT);
+                this.wordHashes = Arrays.copyOf(this.wordHashes, capacity);
+            }
+        }
+
+        // Adds the sentence, which must only contain known tags
+        void add(TaggedSentence sentence, Map<String, String> tags,
+                 Map<String, Integer> labelIds, Features features, Context context)
+        {
+            int wordCount = sentence.words.size();
+            reserve(wordCount);
+            context.reset(sentence.words);
+            int offset = Tagger.START.length;
+
+            int token = this.tokenStarts[this.sentenceCount];
+            int predicted = this.predictedStarts[this.sentenceCount];
+            for (int index = 0; index < wordCount; index++, token++) {
+                String word = sentence.words.get(index);
+                this.labels[token] = labelIds.get(sentence.tags.get(index));
+
+                String tag = tags.get(word);
+                if (tag != null) {
+                    this.dictionaryLabels[token] = labelIds.get(tag);
+                    continue;
+                }
+
+                this.dictionaryLabels[token] = -1;
+                features.extractStatic(offset + index, word, context);
+                System.arraycopy(features.ids, 0, this.features,
+                                 predicted * Features.STATIC_COUNT, Features.STATIC_COUNT);
+                this.wordHashes[predicted] = context.getWordHash(offset + index);
+                predicted += 1;
+            }
+
+            this.sentenceCount += 1;
+            this.tokenStarts[this.sentenceCount] = token;
+            this.predictedStarts[this.sentenceCount] = predicted;
+        }
+    }
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int sentenceCount = 0;
+    private int[] order = new int[0];
+
+    // tag ids are label ids, followed by the ids of the start markers
+    final int startTagId;
+    final int start2TagId;
+    private final String[] tagNames;
+    private final long[] tagHashes;
+    private final long[] previousTagIds;
+    private final long[] previous2TagIds;
+    private final long[] previousTagsIds;
+
+    FeatureCache(String[] labels) {
+        int tagCount = labels.length + Tagger.START.length;
+        this.startTagId = labels.length;
+        this.start2TagId = labels.length + 1;
+        this.tagNames = Arrays.copyOf(labels, tagCount);
+        this.tagNames[this.startTagId] = Tagger.START[0];
+        this.tagNames[this.start2TagId] = Tagger.START[1];
+
+        this.tagHashes = new long[tagCount];
+        this.previousTagIds = new long[tagCount];
+        this.previous2TagIds = new long[tagCount];
+        this.previousTagsIds = new long[tagCount * tagCount];
+        for (int tagId = 0; tagId < tagCount; tagId++) {
+            String tag = this.tagNames[tagId];
+            this.tagHashes[tagId] = Features.hash(tag);
+            this.previousTagIds[tagId] = Features.getId(Features.Template.PREVIOUS_TAG, tag);
+            this.previous2TagIds[tagId] = Features.getId(Features.Template.PREVIOUS2_TAG, tag);
+            for (int tag2Id = 0; tag2Id < tagCount; tag2Id++) {
+                this.previousTagsIds[tagId * tagCount + tag2Id] =
+                    Features.getId(Features.Template.PREVIOUS_TAGS, tag, this.tagNames[tag2Id]);
+            }
+        }
+    }
+
+    // Adds the sentences of the given block after the ones of the previous blocks,
+    // which must all be full
+    void add(Block block) {
+        this.blocks.add(block);
+        this.sentenceCount += block.sentenceCount;
+        if (this.sentenceCount > this.order.length) {
+            this.order = Arrays.copyOf(this.order,
+                                       Math.max(this.sentenceCount, this.order.length * 2));
+        }
+        for (int sentence = this.sentenceCount - block.sentenceCount;
+             sentence < this.sentenceCount;
+             sentence++)
+        {
+            this.order[sentence] = sentence;
+        }
+    }
+
+    int size() {
+        return this.sentenceCount;
+    }
+
+    // Returns the index of the sentence at the given position of the order
+    int getSentence(int position) {
+        return this.order[position];
+    }
+
+    Block getBlock(int sentence) {
+        return this.blocks.get(sentence / BLOCK_SIZE);
+    }
+
+    // Shuffles the order of the sentences like Collections.shuffle
+    void shuffle(Random random) {
+        int[] order = this.order;
+        for (int index = this.sentenceCount; index > 1; index--) {
+            int other = random.nextInt(index);
+            int sentence = order[index - 1];
+            order[index - 1] = order[other];
+            order[other] = sentence;
+        }
+    }
+
+    // Sets the features of the given predicted token of the block, after the given tags
+    void setFeatures(Features features, Block block, int predicted, int prev, int prev2) {
+        long previousTagWord =
+            Features.combine(Features.Template.PREVIOUS_TAG_WORD, this.tagHashes[prev],
+                             block.wordHashes[predicted]);
+        features.set(block.features, predicted * Features.STATIC_COUNT,
+                     this.previousTagIds[prev], this.previous2TagIds[prev2],
+                     this.previousTagsIds[prev * this.tagNames.length + prev2],
+                     previousTagWord);
+    }
+}
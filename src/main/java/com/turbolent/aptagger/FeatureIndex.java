@@ -0,0 +1,50 @@
+package com.turbolent.aptagger;
+
+import java.util.Arrays;
+
+public class FeatureIndex {
+    final long[] keys;
+    final int[] rows;
+    private final int mask;
+
+    public FeatureIndex(long[] features) {
+        int capacity = Integer.highestOneBit(Math.max(2, features.length * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.rows = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(this.rows, -1);
+
+        for (int row = 0; row < features.length; row++) {
+            long feature = features[row];
+            int slot = slot(feature);
+            while (this.keys[slot] != 0 && this.keys[slot] != feature)
+                slot = (slot + 1) & this.mask;
+            this.keys[slot] = feature;
+            this.rows[slot] = row;
+        }
+    }
+
+    public int getCapacity() {
+        return this.keys.length;
+    }
+
+    static int hash(long feature) {
+        return (int) (feature ^ (feature >>> 32));
+    }
+
+    private int slot(long feature) {
+        return hash(feature) & this.mask;
+    }
+
+    public int get(long feature) {
+        int slot = slot(feature);
+        while (true) {
+            long key = this.keys[slot];
+            if (key == feature)
+                return this.rows[slot];
+            if (key == 0)
+                return -1;
+            slot = (slot + 1) & this.mask;
+        }
+    }
+}
@@ -1,51 +1,279 @@
 package com.turbolent.aptagger;
 
-import java.util.HashMap;
-import java.util.List;
+/**
+ * The features of a word, identified by 64-bit ids.
+ * <p>
+ * Each component of a feature is hashed on its own, and the hashes are combined with a seed
+ * of the template, so each word of a sentence and its suffix are only hashed once for all
+ * templates, see {@link Context#getWordHash} and {@link Context#getSuffixHash}.
+ */
+public class Features {
 
-public class Features extends HashMap<String, Integer> {
+    public enum Template {
+        BIAS("bias", 0),
+        SUFFIX("i suffix", 1),
+        PREFIX("i pref1", 1),
+        PREVIOUS_TAG("i-1 tag", 1),
+        PREVIOUS2_TAG("i-2 tag", 1),
+        PREVIOUS_TAGS("i tag+i-2 tag", 2),
+        WORD("i word", 1),
+        PREVIOUS_TAG_WORD("i-1 tag+i word", 2),
+        PREVIOUS_WORD("i-1 word", 1),
+        PREVIOUS_SUFFIX("i-1 suffix", 1),
+        PREVIOUS2_WORD("i-2 word", 1),
+        NEXT_WORD("i+1 word", 1),
+        NEXT_SUFFIX("i+1 suffix", 1),
+        NEXT2_WORD("i+2 word", 1);
 
-    private static final int SUFFIX_LENGTH = 3;
+        public final String name;
+        public final int arity;
 
-    private static String suffix(String word) {
-        return word.substring(Math.max(0, word.length() - SUFFIX_LENGTH));
+        Template(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
     }
 
-    public void addFeature(String... arguments) {
-        String key = String.join(" ", arguments);
-        merge(key, 1, (current, initial) -> current + 1);
+    private static final Template[] TEMPLATES = Template.values();
+    public static final int COUNT = TEMPLATES.length;
+    // the number of features extracted by extractStatic
+    public static final int STATIC_COUNT = 10;
+
+    static final int SUFFIX_LENGTH = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // the seeds of the templates, which are odd,
+    // so different hashes of components stay different when multiplied by the same seed
+    private static final long[] SEEDS = new long[COUNT];
+
+    static {
+        for (Template template : TEMPLATES)
+            SEEDS[template.ordinal()] = end(begin(template)) | 1;
     }
 
-    public static Features getFeatures(int i, String word, List<String> context,
-                                       String prev, String prev2)
-    {
-        Features features = new Features();
+    public final long[] ids = new long[COUNT];
+    public int size = 0;
+
+    private static long begin(Template template) {
+        return (FNV_OFFSET ^ template.ordinal()) * FNV_PRIME;
+    }
+
+    private static long end(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        // zero marks empty slots in feature indices
+        return hash == 0 ? 1 : hash;
+    }
+
+    // Returns the hash of the given characters, which the ids combine
+    // with the seeds of the templates
+    static long hash(CharSequence chars, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int index = start; index < end; index++)
+            hash = (hash ^ chars.charAt(index)) * FNV_PRIME;
+        return hash;
+    }
+
+    static long hash(CharSequence chars) {
+        return hash(chars, 0, chars.length());
+    }
+
+    static long hash(char[] chars, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int index = start; index < end; index++)
+            hash = (hash ^ chars[index]) * FNV_PRIME;
+        return hash;
+    }
+
+    // Returns the id of the given template
+    static long combine(Template template) {
+        return end(SEEDS[template.ordinal()]);
+    }
+
+    // Returns the id of the given template and hash of its component
+    static long combine(Template template, long hash) {
+        return end(hash * SEEDS[template.ordinal()]);
+    }
+
+    // Returns the id of the given template and hashes of its components
+    static long combine(Template template, long first, long second) {
+        return end(first * SEEDS[template.ordinal()] ^ second);
+    }
+
+    public static long getId(Template template, CharSequence chars, int start, int end) {
+        return combine(template, hash(chars, start, end));
+    }
+
+    public static long getId(Template template, CharSequence chars) {
+        return getId(template, chars, 0, chars.length());
+    }
+
+    public static long getId(Template template, CharSequence first, CharSequence second) {
+        return combine(template, hash(first), hash(second));
+    }
+
+    private static long getSuffixId(Template template, CharSequence word) {
+        int length = word.length();
+        return getId(template, word, Math.max(0, length - SUFFIX_LENGTH), length);
+    }
+
+    private static long getPrefixId(Template template, CharSequence word) {
+        return getId(template, word, 0, Math.min(1, word.length()));
+    }
 
-        features.addFeature("bias");
+    private static long getId(Template template, Context context, int index) {
+        return combine(template, context.getWordHash(index));
+    }
+
+    private static long getSuffixId(Template template, Context context, int index) {
+        return combine(template, context.getSuffixHash(index));
+    }
+
+    // Maps a feature key of the legacy model format, i.e. the template name
+    // and its components joined by spaces, to the id of the same feature
+    public static long getId(String key) {
+        Template match = null;
+        for (Template template : TEMPLATES) {
+            int length = template.name.length();
+            if (key.startsWith(template.name)
+                && (key.length() == length || key.charAt(length) == ' ')
+                && (match == null || length > match.name.length()))
+            {
+                match = template;
+            }
+        }
+
+        if (match == null) {
+            String message = String.format("Invalid feature \"%s\"", key);
+            throw new IllegalArgumentException(message);
+        }
+
+        long[] componentHashes = new long[match.arity];
+        int start = match.name.length() + 1;
+        for (int component = 1; component <= match.arity; component++) {
+            int end = component == match.arity
+                      ? key.length()
+                      : key.indexOf(' ', start);
+            if (start > key.length() || end < 0) {
+                String message = String.format("Invalid feature \"%s\"", key);
+                throw new IllegalArgumentException(message);
+            }
+            componentHashes[component - 1] = hash(key, start, end);
+            start = end + 1;
+        }
+
+        switch (match.arity) {
+            case 0:
+                return combine(match);
+            case 1:
+                return combine(match, componentHashes[0]);
+            default:
+                return combine(match, componentHashes[0], componentHashes[1]);
+        }
+    }
+
+    private void add(long id) {
+        this.ids[this.size++] = id;
+    }
+
+    public void extract(int i, String word, Context context, String prev, String prev2) {
+        this.size = 0;
+        // the tags are hashed once for the features of the previous tags
+        long previousTag = hash(prev);
+        long previous2Tag = hash(prev2);
+
+        add(combine(Template.BIAS));
+
+        add(getSuffixId(Template.SUFFIX, word));
+        add(getPrefixId(Template.PREFIX, word));
+
+        add(combine(Template.PREVIOUS_TAG, previousTag));
+        add(combine(Template.PREVIOUS2_TAG, previous2Tag));
+        add(combine(Template.PREVIOUS_TAGS, previousTag, previous2Tag));
+
+        add(getId(Template.WORD, context, i));
+        add(combine(Template.PREVIOUS_TAG_WORD, previousTag, context.getWordHash(i)));
+
+        add(getId(Template.PREVIOUS_WORD, context, i - 1));
+        add(getSuffixId(Template.PREVIOUS_SUFFIX, context, i - 1));
 
-        features.addFeature("i suffix", suffix(word));
-        features.addFeature("i pref1", String.valueOf(word.charAt(0)));
+        add(getId(Template.PREVIOUS2_WORD, context, i - 2));
 
-        features.addFeature("i-1 tag", prev);
-        features.addFeature("i-2 tag", prev2);
-        features.addFeature("i tag+i-2 tag", prev, prev2);
+        add(getId(Template.NEXT_WORD, context, i + 1));
+        add(getSuffixId(Template.NEXT_SUFFIX, context, i + 1));
 
-        String currentContextWord = context.get(i);
-        features.addFeature("i word", currentContextWord);
-        features.addFeature("i-1 tag+i word", prev, currentContextWord);
+        add(getId(Template.NEXT2_WORD, context, i + 2));
+    }
+
+    /**
+     * Extracts the features which only depend on the words, i.e. all except the ones
+     * of the previous tags, see {@link #extractDynamic}. They are the same for all
+     * tags predicted before the word, so they can be scored once per word.
+     */
+    public void extractStatic(int i, String word, Context context) {
+        this.size = 0;
+
+        add(combine(Template.BIAS));
+
+        add(getSuffixId(Template.SUFFIX, word));
+        add(getPrefixId(Template.PREFIX, word));
+
+        add(getId(Template.WORD, context, i));
+
+        add(getId(Template.PREVIOUS_WORD, context, i - 1));
+        add(getSuffixId(Template.PREVIOUS_SUFFIX, context, i - 1));
+
+        add(getId(Template.PREVIOUS2_WORD, context, i - 2));
+
+        add(getId(Template.NEXT_WORD, context, i + 1));
+        add(getSuffixId(Template.NEXT_SUFFIX, context, i + 1));
 
-        String previousContextWord = context.get(i - 1);
-        features.addFeature("i-1 word", previousContextWord);
-        features.addFeature("i-1 suffix", suffix(previousContextWord));
+        add(getId(Template.NEXT2_WORD, context, i + 2));
+    }
+
+    // Extracts the features which depend on the previous tags
+    public void extractDynamic(int i, Context context, String prev, String prev2) {
+        this.size = 0;
+        long previousTag = hash(prev);
+        long previous2Tag = hash(prev2);
 
-        features.addFeature("i-2 word", context.get(i - 2));
+        add(combine(Template.PREVIOUS_TAG, previousTag));
+        add(combine(Template.PREVIOUS2_TAG, previous2Tag));
+        add(combine(Template.PREVIOUS_TAGS, previousTag, previous2Tag));
 
-        String nextContextWord = context.get(i + 1);
-        features.addFeature("i+1 word", nextContextWord);
-        features.addFeature("i+1 suffix", suffix(nextContextWord));
+        add(combine(Template.PREVIOUS_TAG_WORD, previousTag, context.getWordHash(i)));
+    }
 
-        features.addFeature("i+2 word", context.get(i + 2));
+    /**
+     * Sets the features to the given static features, see {@link #extractStatic},
+     * and the given features of the previous tags, in the order of {@link #extract},
+     * so they are scored and updated like the extracted ones.
+     */
+    public void set(long[] staticIds, int offset, long previousTag, long previous2Tag,
+                    long previousTags, long previousTagWord)
+    {
+        long[] ids = this.ids;
+        ids[0] = staticIds[offset];
+        ids[1] = staticIds[offset + 1];
+        ids[2] = staticIds[offset + 2];
+        ids[3] = previousTag;
+        ids[4] = previous2Tag;
+        ids[5] = previousTags;
+        ids[6] = staticIds[offset + 3];
+        ids[7] = previousTagWord;
+        System.arraycopy(staticIds, offset + 4, ids, 8, STATIC_COUNT - 4);
+        this.size = COUNT;
+    }
 
+    public static Features getFeatures(int i, String word, Context context,
+                                       String prev, String prev2)
+    {
+        Features features = new Features();
+        features.extract(i, word, context, prev, prev2);
         return features;
     }
 }
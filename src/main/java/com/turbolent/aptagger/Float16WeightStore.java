@@ -0,0 +1,48 @@
+package com.turbolent.aptagger;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+public class Float16WeightStore extends BufferWeightStore {
+    private final ShortBuffer weights;
+
+    public Float16WeightStore(int labelCount, LongBuffer features,
+                              LongBuffer keys, IntBuffer rows, ShortBuffer weights)
+    {
+        super(labelCount, features, keys, rows);
+        this.weights = weights;
+    }
+
+    public Float16WeightStore(int labelCount, long[] features, short[] weights) {
+        super(labelCount, features, new FeatureIndex(features));
+        this.weights = ShortBuffer.wrap(weights);
+    }
+
+    @Override
+    Float16WeightStore toDirect() {
+        return new Float16WeightStore(this.labelCount, DirectBuffers.copyOf(this.features),
+                                      DirectBuffers.copyOf(this.keys),
+                                      DirectBuffers.copyOf(this.rows),
+                                      DirectBuffers.copyOf(this.weights));
+    }
+
+    @Override
+    public Quantization getQuantization() {
+        return Quantization.FLOAT16;
+    }
+
+    @Override
+    public float getWeight(int row, int labelId) {
+        return Quantization.fromFloat16(this.weights.get(row * this.labelCount + labelId));
+    }
+
+    @Override
+    public void addRow(int row, float[] scores) {
+        ShortBuffer weights = this.weights;
+        int labelCount = this.labelCount;
+        int offset = row * labelCount;
+        for (int labelId = 0; labelId < labelCount; labelId++)
+            scores[labelId] += Quantization.fromFloat16(weights.get(offset + labelId));
+    }
+}
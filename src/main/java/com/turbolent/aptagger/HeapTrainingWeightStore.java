@@ -0,0 +1,201 @@
+package com.turbolent.aptagger;
+
+import java.util.Arrays;
+
+/**
+ * Training state of the (feature, label) weights on the heap, held in primitive columns.
+ * <p>
+ * An open-addressing table maps each feature id to the first of its entries.
+ * The entries of a feature are chained, and each holds a label id,
+ * the current weight, the accumulated total for averaging and the timestamp
+ * of the last update. The table is split into segments which grow independently,
+ * and the entry columns grow by pages, so no growth step copies the whole store.
+ */
+public class HeapTrainingWeightStore implements TrainingWeightStore {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 10;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final long[][] keys = new long[SEGMENT_COUNT][];
+    private final int[][] heads = new int[SEGMENT_COUNT][];
+    private final int[] sizes = new int[SEGMENT_COUNT];
+    private int featureCount = 0;
+
+    private int[][] labels = new int[0][];
+    private float[][] weights = new float[0][];
+    private float[][] totals = new float[0][];
+    private int[][] timestamps = new int[0][];
+    private int[][] nexts = new int[0][];
+    private int entryCount = 0;
+
+    public HeapTrainingWeightStore() {
+        for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+            this.keys[segment] = new long[INITIAL_SEGMENT_CAPACITY];
+            this.heads[segment] = new int[INITIAL_SEGMENT_CAPACITY];
+        }
+    }
+
+    @Override
+    public TrainingWeightStore newStore() {
+        return new HeapTrainingWeightStore();
+    }
+
+    private static int getSegment(long feature) {
+        return (int) (feature >>> (Long.SIZE - SEGMENT_BITS));
+    }
+
+    private static int getSlot(long[] keys, long feature) {
+        int mask = keys.length - 1;
+        int slot = FeatureIndex.hash(feature) & mask;
+        while (keys[slot] != 0 && keys[slot] != feature)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return this.featureCount;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    @Override
+    public int getFirstEntry(long feature) {
+        int segment = getSegment(feature);
+        long[] keys = this.keys[segment];
+        int slot = getSlot(keys, feature);
+        if (keys[slot] == 0)
+            return -1;
+        return this.heads[segment][slot];
+    }
+
+    @Override
+    public int getOrAddEntry(long feature, int label) {
+        int segment = getSegment(feature);
+        long[] keys = this.keys[segment];
+        int slot = getSlot(keys, feature);
+        if (keys[slot] == 0) {
+            if ((this.sizes[segment] + 1) * 2 > keys.length) {
+                growSegment(segment);
+                keys = this.keys[segment];
+                slot = getSlot(keys, feature);
+            }
+            keys[slot] = feature;
+            this.heads[segment][slot] = -1;
+            this.sizes[segment] += 1;
+            this.featureCount += 1;
+        }
+
+        int[] heads = this.heads[segment];
+        int entry = heads[slot];
+        while (entry >= 0 && getLabel(entry) != label)
+            entry = getNext(entry);
+        if (entry >= 0)
+            return entry;
+
+        entry = addEntry(label, heads[slot]);
+        heads[slot] = entry;
+        return entry;
+    }
+
+    private void growSegment(int segment) {
+        long[] oldKeys = this.keys[segment];
+        int[] oldHeads = this.heads[segment];
+        long[] keys = new long[oldKeys.length * 2];
+        int[] heads = new int[oldKeys.length * 2];
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            long feature = oldKeys[oldSlot];
+            if (feature == 0)
+                continue;
+            int slot = getSlot(keys, feature);
+            keys[slot] = feature;
+            heads[slot] = oldHeads[oldSlot];
+        }
+        this.keys[segment] = keys;
+        this.heads[segment] = heads;
+    }
+
+    private int addEntry(int label, int next) {
+        int entry = this.entryCount;
+        int page = entry >>> PAGE_BITS;
+        if (page == this.labels.length) {
+            int pageCount = Math.max(1, page * 2);
+            this.labels = Arrays.copyOf(this.labels, pageCount);
+            this.weights = Arrays.copyOf(this.weights, pageCount);
+            this.totals = Arrays.copyOf(this.totals, pageCount);
+            this.timestamps = Arrays.copyOf(this.timestamps, pageCount);
+            this.nexts = Arrays.copyOf(this.nexts, pageCount);
+        }
+        if (this.labels[page] == null) {
+            this.labels[page] = new int[PAGE_SIZE];
+            this.weights[page] = new float[PAGE_SIZE];
+            this.totals[page] = new float[PAGE_SIZE];
+            this.timestamps[page] = new int[PAGE_SIZE];
+            this.nexts[page] = new int[PAGE_SIZE];
+        }
+
+        int offset = entry & PAGE_MASK;
+        this.labels[page][offset] = label;
+        this.nexts[page][offset] = next;
+        this.entryCount += 1;
+        return entry;
+    }
+
+    @Override
+    public void forEachFeature(FeatureVisitor visitor) {
+        for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+            long[] keys = this.keys[segment];
+            int[] heads = this.heads[segment];
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0)
+                    visitor.visit(keys[slot], heads[slot]);
+            }
+        }
+    }
+
+    @Override
+    public int getLabel(int entry) {
+        return this.labels[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public int getNext(int entry) {
+        return this.nexts[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public float getWeight(int entry) {
+        return this.weights[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public void setWeight(int entry, float weight) {
+        this.weights[entry >>> PAGE_BITS][entry & PAGE_MASK] = weight;
+    }
+
+    @Override
+    public float getTotal(int entry) {
+        return this.totals[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public void setTotal(int entry, float total) {
+        this.totals[entry >>> PAGE_BITS][entry & PAGE_MASK] = total;
+    }
+
+    @Override
+    public int getTimestamp(int entry) {
+        return this.timestamps[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public void setTimestamp(int entry, int timestamp) {
+        this.timestamps[entry >>> PAGE_BITS][entry & PAGE_MASK] = timestamp;
+    }
+}
@@ -0,0 +1,84 @@
+package com.turbolent.aptagger;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Weights on the heap, in one array per row, padded to the stride of the
+ * {@link ScoringKernel}, so rows are added to padded scores in whole vectors.
+ */
+public class HeapWeightStore implements WeightStore {
+    private final int labelCount;
+    private final int stride;
+    private final long[] features;
+    private final float[][] rows;
+    private final FeatureIndex index;
+
+    // The weights are given in rows of the label count
+    public HeapWeightStore(int labelCount, long[] features, float[] weights) {
+        this.labelCount = labelCount;
+        this.stride = ScoringKernel.getStride(labelCount);
+        this.features = features;
+        this.rows = new float[features.length][this.stride];
+        for (int row = 0; row < features.length; row++)
+            System.arraycopy(weights, row * labelCount, this.rows[row], 0, labelCount);
+        this.index = new FeatureIndex(features);
+    }
+
+    // Returns a copy of the store in direct buffers, with the rows unpadded
+    MappedWeightStore toDirect() {
+        int labelCount = this.labelCount;
+        FloatBuffer weights =
+            DirectBuffers.allocate((long) this.features.length * labelCount * Float.BYTES)
+                         .asFloatBuffer();
+        for (float[] row : this.rows)
+            weights.put(row, 0, labelCount);
+        ((Buffer) weights).clear();
+        return new MappedWeightStore(labelCount, DirectBuffers.copyOf(this.features),
+                                     DirectBuffers.copyOf(this.index.keys),
+                                     DirectBuffers.copyOf(this.index.rows), weights);
+    }
+
+    @Override
+    public int getLabelCount() {
+        return this.labelCount;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return this.features.length;
+    }
+
+    @Override
+    public Quantization getQuantization() {
+        return Quantization.NONE;
+    }
+
+    @Override
+    public long getFeature(int row) {
+        return this.features[row];
+    }
+
+    @Override
+    public int findRow(long feature) {
+        return this.index.get(feature);
+    }
+
+    @Override
+    public float getWeight(int row, int labelId) {
+        return this.rows[row][labelId];
+    }
+
+    // Adds the whole padded row if the scores are padded
+    @Override
+    public void addRow(int row, float[] scores) {
+        int stride = this.stride;
+        ScoringKernel.add(this.rows[row], scores,
+                          scores.length >= stride ? stride : this.labelCount);
+    }
+
+    @Override
+    public int addRowAndGetBest(int row, float[] scores) {
+        return ScoringKernel.addAndGetBest(this.rows[row], scores, this.labelCount);
+    }
+}
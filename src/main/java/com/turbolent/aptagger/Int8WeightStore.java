@@ -0,0 +1,54 @@
+package com.turbolent.aptagger;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+public class Int8WeightStore extends BufferWeightStore {
+    private final ByteBuffer weights;
+    private final FloatBuffer scales;
+
+    public Int8WeightStore(int labelCount, LongBuffer features, LongBuffer keys,
+                           IntBuffer rows, ByteBuffer weights, FloatBuffer scales)
+    {
+        super(labelCount, features, keys, rows);
+        this.weights = weights;
+        this.scales = scales;
+    }
+
+    public Int8WeightStore(int labelCount, long[] features, byte[] weights, float[] scales) {
+        super(labelCount, features, new FeatureIndex(features));
+        this.weights = ByteBuffer.wrap(weights);
+        this.scales = FloatBuffer.wrap(scales);
+    }
+
+    @Override
+    Int8WeightStore toDirect() {
+        return new Int8WeightStore(this.labelCount, DirectBuffers.copyOf(this.features),
+                                   DirectBuffers.copyOf(this.keys),
+                                   DirectBuffers.copyOf(this.rows),
+                                   DirectBuffers.copyOf(this.weights),
+                                   DirectBuffers.copyOf(this.scales));
+    }
+
+    @Override
+    public Quantization getQuantization() {
+        return Quantization.INT8;
+    }
+
+    @Override
+    public float getWeight(int row, int labelId) {
+        return this.weights.get(row * this.labelCount + labelId) * this.scales.get(row);
+    }
+
+    @Override
+    public void addRow(int row, float[] scores) {
+        ByteBuffer weights = this.weights;
+        float scale = this.scales.get(row);
+        int labelCount = this.labelCount;
+        int offset = row * labelCount;
+        for (int labelId = 0; labelId < labelCount; labelId++)
+            scores[labelId] += weights.get(offset + labelId) * scale;
+    }
+}
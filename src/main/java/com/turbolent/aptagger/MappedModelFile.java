@@ -0,0 +1,271 @@
+package com.turbolent.aptagger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary model format which is memory-mapped instead of deserialized.
+ * <p>
+ * All values are little-endian. A fixed-size header is followed by 8-byte aligned sections:
+ * <ol>
+ * <li>the string table: the labels, followed by the word-tag pairs of the tag dictionary,
+ *     each string prefixed by its UTF-8 byte length</li>
+ * <li>the feature id of each weight row</li>
+ * <li>the feature index, an open-addressing table of feature ids and their rows,
+ *     laid out like {@link FeatureIndex}</li>
+ * <li>the weight rows, one weight per label</li>
+ * <li>for {@link Quantization#INT8} weights only, the scale of each weight row</li>
+ * </ol>
+ * The second version added the quantization of the weights. The third version changed
+ * the hashing of the feature ids, see {@link Features}, so older models can't be loaded.
+ */
+public class MappedModelFile {
+    // "APTG"
+    private static final int MAGIC = 0x47545041;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int LABEL_COUNT_OFFSET = 8;
+    private static final int TAG_COUNT_OFFSET = 12;
+    private static final int FEATURE_COUNT_OFFSET = 16;
+    private static final int INDEX_CAPACITY_OFFSET = 20;
+    private static final int STRINGS_OFFSET = 24;
+    private static final int FEATURES_OFFSET = 32;
+    private static final int INDEX_OFFSET = 40;
+    private static final int WEIGHTS_OFFSET = 48;
+    private static final int QUANTIZATION_OFFSET = 56;
+    private static final Quantization[] QUANTIZATIONS = Quantization.values();
+
+    public static boolean isMappedModel(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0)
+                continue;
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long size)
+        throws IOException
+    {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Model section too large to map: " + size + " bytes");
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static Tagger load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt(MAGIC_OFFSET) != MAGIC)
+                throw new IOException("Not a mapped model file: " + path);
+            Tagger.checkVersion("model format", header.getInt(VERSION_OFFSET), VERSION);
+
+            int labelCount = header.getInt(LABEL_COUNT_OFFSET);
+            int tagCount = header.getInt(TAG_COUNT_OFFSET);
+            int featureCount = header.getInt(FEATURE_COUNT_OFFSET);
+            int indexCapacity = header.getInt(INDEX_CAPACITY_OFFSET);
+            long stringsOffset = header.getLong(STRINGS_OFFSET);
+            long featuresOffset = header.getLong(FEATURES_OFFSET);
+            long indexOffset = header.getLong(INDEX_OFFSET);
+            long weightsOffset = header.getLong(WEIGHTS_OFFSET);
+            int ordinal = header.getInt(QUANTIZATION_OFFSET);
+            if (ordinal < 0 || ordinal >= QUANTIZATIONS.length)
+                throw new IOException("Unsupported weight quantization " + ordinal);
+            Quantization quantization = QUANTIZATIONS[ordinal];
+
+            ByteBuffer strings = map(channel, stringsOffset, featuresOffset - stringsOffset);
+            String[] labels = new String[labelCount];
+            for (int labelId = 0; labelId < labelCount; labelId++)
+                labels[labelId] = readString(strings);
+            Map<String, String> tags = new HashMap<>(tagCount * 4 / 3 + 1);
+            for (int tagIndex = 0; tagIndex < tagCount; tagIndex++)
+                tags.put(readString(strings), readString(strings));
+
+            long indexKeysSize = (long) indexCapacity * Long.BYTES;
+            LongBuffer features =
+                map(channel, featuresOffset, (long) featureCount * Long.BYTES).asLongBuffer();
+            LongBuffer keys = map(channel, indexOffset, indexKeysSize).asLongBuffer();
+            IntBuffer rows = map(channel, indexOffset + indexKeysSize,
+                                 (long) indexCapacity * Integer.BYTES)
+                .asIntBuffer();
+            long weightsSize = (long) featureCount * labelCount * quantization.weightSize;
+            ByteBuffer weightBytes = map(channel, weightsOffset, weightsSize);
+
+            WeightStore weights;
+            switch (quantization) {
+                case FLOAT16:
+                    weights = new Float16WeightStore(labelCount, features, keys, rows,
+                                                     weightBytes.asShortBuffer());
+                    break;
+                case INT8:
+                    ByteBuffer scales = map(channel, align(weightsOffset + weightsSize),
+                                            (long) featureCount * Float.BYTES);
+                    weights = new Int8WeightStore(labelCount, features, keys, rows,
+                                                  weightBytes, scales.asFloatBuffer());
+                    break;
+                default:
+                    weights = new MappedWeightStore(labelCount, features, keys, rows,
+                                                    weightBytes.asFloatBuffer());
+                    break;
+            }
+
+            return new Tagger(tags, new AveragedPerceptron(labels, weights));
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(Integer.reverseBytes(bytes.length));
+        output.write(bytes);
+    }
+
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer =
+            ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer reserve(int size) throws IOException {
+            if (this.buffer.remaining() < size)
+                flush();
+            return this.buffer;
+        }
+
+        void pad(long offset) throws IOException {
+            while (position() < offset)
+                reserve(1).put((byte) 0);
+        }
+
+        long position() throws IOException {
+            return this.channel.position() + this.buffer.position();
+        }
+
+        void flush() throws IOException {
+            // through Buffer, whose methods ByteBuffer only overrides since Java 9
+            ((Buffer) this.buffer).flip();
+            while (this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+            ((Buffer) this.buffer).clear();
+        }
+    }
+
+    public static void save(Path path, Map<String, String> tags, AveragedPerceptron perceptron)
+        throws IOException
+    {
+        String[] labels = perceptron.labels;
+        WeightStore weights = perceptron.weights;
+        int labelCount = labels.length;
+        int featureCount = weights.getFeatureCount();
+        Quantization quantization = weights.getQuantization();
+
+        long[] features = perceptron.getFeatures();
+        FeatureIndex index = new FeatureIndex(features);
+        int indexCapacity = index.getCapacity();
+
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        try (DataOutputStream strings = new DataOutputStream(stringBytes)) {
+            for (String label : labels)
+                writeString(strings, label);
+            for (Map.Entry<String, String> tagEntry : tags.entrySet()) {
+                writeString(strings, tagEntry.getKey());
+                writeString(strings, tagEntry.getValue());
+            }
+        }
+
+        long stringsOffset = HEADER_SIZE;
+        long featuresOffset = align(stringsOffset + stringBytes.size());
+        long indexOffset = featuresOffset + (long) featureCount * Long.BYTES;
+        long weightsOffset =
+            align(indexOffset + (long) indexCapacity * (Long.BYTES + Integer.BYTES));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Output output = new Output(channel);
+
+            ByteBuffer header = output.reserve(HEADER_SIZE);
+            header.putInt(MAGIC_OFFSET, MAGIC)
+                  .putInt(VERSION_OFFSET, VERSION)
+                  .putInt(LABEL_COUNT_OFFSET, labelCount)
+                  .putInt(TAG_COUNT_OFFSET, tags.size())
+                  .putInt(FEATURE_COUNT_OFFSET, featureCount)
+                  .putInt(INDEX_CAPACITY_OFFSET, indexCapacity)
+                  .putLong(STRINGS_OFFSET, stringsOffset)
+                  .putLong(FEATURES_OFFSET, featuresOffset)
+                  .putLong(INDEX_OFFSET, indexOffset)
+                  .putLong(WEIGHTS_OFFSET, weightsOffset)
+                  .putInt(QUANTIZATION_OFFSET, quantization.ordinal());
+            ((Buffer) header).position(HEADER_SIZE);
+
+            for (byte b : stringBytes.toByteArray())
+                output.reserve(1).put(b);
+
+            output.pad(featuresOffset);
+            for (long feature : features)
+                output.reserve(Long.BYTES).putLong(feature);
+
+            for (long key : index.keys)
+                output.reserve(Long.BYTES).putLong(key);
+            for (int row : index.rows)
+                output.reserve(Integer.BYTES).putInt(row);
+
+            output.pad(weightsOffset);
+            switch (quantization) {
+                case FLOAT16:
+                    for (short half : Quantization.toFloat16(weights))
+                        output.reserve(Short.BYTES).putShort(half);
+                    break;
+                case INT8:
+                    float[] scales = new float[featureCount];
+                    for (byte weight : Quantization.toInt8(weights, scales))
+                        output.reserve(Byte.BYTES).put(weight);
+                    output.pad(align(output.position()));
+                    for (float scale : scales)
+                        output.reserve(Float.BYTES).putFloat(scale);
+                    break;
+                default:
+                    for (int row = 0; row < featureCount; row++) {
+                        for (int labelId = 0; labelId < labelCount; labelId++) {
+                            output.reserve(Float.BYTES)
+                                  .putFloat(weights.getWeight(row, labelId));
+                        }
+                    }
+                    break;
+            }
+
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.turbolent.aptagger;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+// Unquantized weights in a buffer, mapped from a model file or allocated outside of the heap
+public class MappedWeightStore extends BufferWeightStore {
+    private final FloatBuffer weights;
+
+    public MappedWeightStore(int labelCount, LongBuffer features,
+                             LongBuffer keys, IntBuffer rows, FloatBuffer weights)
+    {
+        super(labelCount, features, keys, rows);
+        this.weights = weights;
+    }
+
+    @Override
+    MappedWeightStore toDirect() {
+        return new MappedWeightStore(this.labelCount, DirectBuffers.copyOf(this.features),
+                                     DirectBuffers.copyOf(this.keys),
+                                     DirectBuffers.copyOf(this.rows),
+                                     DirectBuffers.copyOf(this.weights));
+    }
+
+    @Override
+    public Quantization getQuantization() {
+        return Quantization.NONE;
+    }
+
+    @Override
+    public float getWeight(int row, int labelId) {
+        return this.weights.get(row * this.labelCount + labelId);
+    }
+
+    @Override
+    public void addRow(int row, float[] scores) {
+        FloatBuffer weights = this.weights;
+        int labelCount = this.labelCount;
+        int offset = row * labelCount;
+        for (int labelId = 0; labelId < labelCount; labelId++)
+            scores[labelId] += weights.get(offset + labelId);
+    }
+}
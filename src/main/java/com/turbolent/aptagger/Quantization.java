@@ -0,0 +1,112 @@
+package com.turbolent.aptagger;
+
+/**
+ * Encodings of the weights of a model.
+ * <p>
+ * {@link #FLOAT16} stores each weight as an IEEE 754 half-precision float.
+ * {@link #INT8} stores each weight as a signed byte, which is multiplied
+ * by the scale of its feature, so the largest weight of each feature
+ * is represented by 127 or -127.
+ */
+public enum Quantization {
+    NONE(Float.BYTES),
+    FLOAT16(Short.BYTES),
+    INT8(Byte.BYTES);
+
+    private static final int INT8_MAXIMUM = 127;
+
+    public final int weightSize;
+
+    Quantization(int weightSize) {
+        this.weightSize = weightSize;
+    }
+
+    // Rounds to the nearest half-precision float, ties to even
+    public static short toFloat16(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+
+        // infinity or NaN
+        if (magnitude >= 0x7f800000)
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+
+        // rounds beyond the largest half-precision float
+        if (magnitude >= 0x477ff000)
+            return (short) (sign | 0x7c00);
+
+        // normal half-precision float
+        if (magnitude >= 0x38800000) {
+            int half = (magnitude - 0x38000000) >>> 13;
+            int rest = magnitude & 0x1fff;
+            if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0))
+                half += 1;
+            return (short) (sign | half);
+        }
+
+        // rounds to zero
+        if (magnitude < 0x33000000)
+            return (short) sign;
+
+        // subnormal half-precision float
+        int shift = 126 - (magnitude >>> 23);
+        int mantissa = (magnitude & 0x7fffff) | 0x800000;
+        int half = mantissa >>> shift;
+        int rest = mantissa & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (rest > halfway || (rest == halfway && (half & 1) != 0))
+            half += 1;
+        return (short) (sign | half);
+    }
+
+    public static float fromFloat16(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign == 0 ? value : -value;
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    public static short[] toFloat16(WeightStore weights) {
+        int labelCount = weights.getLabelCount();
+        int featureCount = weights.getFeatureCount();
+        short[] halfs = new short[featureCount * labelCount];
+        for (int row = 0, offset = 0; row < featureCount; row++, offset += labelCount) {
+            for (int labelId = 0; labelId < labelCount; labelId++)
+                halfs[offset + labelId] = toFloat16(weights.getWeight(row, labelId));
+        }
+        return halfs;
+    }
+
+    // Fills the given array with the scale of each feature
+    public static byte[] toInt8(WeightStore weights, float[] scales) {
+        int labelCount = weights.getLabelCount();
+        int featureCount = weights.getFeatureCount();
+        byte[] bytes = new byte[featureCount * labelCount];
+        for (int row = 0, offset = 0; row < featureCount; row++, offset += labelCount) {
+            float maximum = 0.f;
+            for (int labelId = 0; labelId < labelCount; labelId++)
+                maximum = Math.max(maximum, Math.abs(weights.getWeight(row, labelId)));
+
+            float scale = maximum / INT8_MAXIMUM;
+            scales[row] = scale;
+            if (scale == 0.f)
+                continue;
+
+            for (int labelId = 0; labelId < labelCount; labelId++) {
+                float weight = weights.getWeight(row, labelId);
+                bytes[offset + labelId] = (byte) Math.round(weight / scale);
+            }
+        }
+        return bytes;
+    }
+}
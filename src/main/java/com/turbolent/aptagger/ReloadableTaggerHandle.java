@@ -0,0 +1,211 @@
+package com.turbolent.aptagger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tagger handle for a model file, which reloads the model on request, or when the file
+ * changes if it is watched.
+ * <p>
+ * Models are loaded on a background thread and warmed up by tagging the warm-up
+ * sentences, greedily and with a beam, before they replace the current tagger. Tag
+ * calls never wait for a load: calls in progress finish with the previous tagger, and
+ * later calls use the new one.
+ * The handle does not keep previous taggers, so their weights, on the heap or mapped,
+ * are released once the calls using them have finished. If loading fails, the current
+ * tagger is kept.
+ * <p>
+ * Files should be replaced atomically, e.g. by moving a new file over the watched one,
+ * so a reload never sees a partially written model.
+ */
+public class ReloadableTaggerHandle extends TaggerHandle implements Closeable {
+    public interface ReloadListener {
+        void onReloaded(Path path, Tagger tagger);
+
+        void onReloadFailed(Path path, Exception exception);
+    }
+
+    // sentences of different lengths, with capitalized, non-ASCII and number words
+    public static final List<List<String>> DEFAULT_WARMUP_SENTENCES =
+        Collections.unmodifiableList(Arrays.asList(getWarmUpSentence(1),
+                                                   getWarmUpSentence(6),
+                                                   getWarmUpSentence(20),
+                                                   getWarmUpSentence(50)));
+    public static final int WARMUP_ROUNDS = 200;
+    public static final int WARMUP_BEAM_WIDTH = 3;
+    // file events within this delay are combined into one reload
+    public static final long WATCH_DELAY_MILLIS = 200;
+
+    private final Path path;
+    private final Tagger.MetricsListener metrics;
+    private final List<List<String>> warmUpSentences;
+    private final ReloadListener listener;
+    private final boolean offHeap;
+    private final ExecutorService loader;
+    private volatile WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * Loads the model from the given path. The metrics listener, the warm-up sentences
+     * and the reload listener may be null. Without warm-up sentences,
+     * {@link #DEFAULT_WARMUP_SENTENCES} are used.
+     */
+    public ReloadableTaggerHandle(Path path, Tagger.MetricsListener metrics,
+                                  List<List<String>> warmUpSentences, ReloadListener listener)
+        throws IOException
+    {
+        this(path, metrics, warmUpSentences, listener, false);
+    }
+
+    /**
+     * Loads the model from the given path, like {@link #ReloadableTaggerHandle(Path,
+     * Tagger.MetricsListener, List, ReloadListener)}. If off-heap, the weights of each
+     * loaded model are moved outside of the heap, see {@link Tagger#toOffHeap}.
+     */
+    public ReloadableTaggerHandle(Path path, Tagger.MetricsListener metrics,
+                                  List<List<String>> warmUpSentences, ReloadListener listener,
+                                  boolean offHeap)
+        throws IOException
+    {
+        super(null);
+        this.path = path;
+        this.metrics = metrics;
+        this.warmUpSentences = warmUpSentences != null
+                               ? warmUpSentences
+                               : DEFAULT_WARMUP_SENTENCES;
+        this.listener = listener;
+        this.offHeap = offHeap;
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aptagger-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        set(load());
+    }
+
+    public ReloadableTaggerHandle(Path path) throws IOException {
+        this(path, null, null, null);
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    private static List<String> getWarmUpSentence(int length) {
+        String[] words = {"Simple", "is", "better", "than", "complex", ",", "and", "the",
+                          "na\u00efve", "\u00dcber", "costs", "1,000", "more", "."};
+        List<String> sentence = new ArrayList<>(length);
+        for (int index = 0; index < length; index++)
+            sentence.add(words[index % words.length]);
+        return Collections.unmodifiableList(sentence);
+    }
+
+    private Tagger load() throws IOException {
+        Tagger tagger = this.metrics != null
+                        ? Tagger.loadFrom(this.path, this.metrics)
+                        : Tagger.loadFrom(this.path);
+        if (this.offHeap)
+            tagger = tagger.toOffHeap();
+        // warm up without reporting to the metrics
+        Tagger warmUpTagger = tagger.withMetrics(null);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (List<String> sentence : this.warmUpSentences) {
+                warmUpTagger.tag(sentence);
+                warmUpTagger.tag(sentence, WARMUP_BEAM_WIDTH);
+            }
+        }
+        return tagger;
+    }
+
+    /**
+     * Loads and warms up the model in the background, and then replaces the current
+     * tagger. Returns the new tagger when it is in use. Reloads are run one at a time.
+     * After the handle is closed, the returned future fails with a
+     * {@link RejectedExecutionException}.
+     */
+    public CompletableFuture<Tagger> reload() {
+        CompletableFuture<Tagger> result = new CompletableFuture<>();
+        try {
+            this.loader.execute(() -> {
+                try {
+                    Tagger tagger = load();
+                    set(tagger);
+                    if (this.listener != null)
+                        this.listener.onReloaded(this.path, tagger);
+                    result.complete(tagger);
+                } catch (IOException | RuntimeException e) {
+                    if (this.listener != null)
+                        this.listener.onReloadFailed(this.path, e);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // Watches the model file, and reloads it when it is created or modified
+    public synchronized void watch() throws IOException {
+        if (this.watcher != null)
+            return;
+
+        Path absolutePath = this.path.toAbsolutePath();
+        Path directory = absolutePath.getParent();
+        Path fileName = absolutePath.getFileName();
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watchService = watchService;
+
+        this.watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    // combine the events of one replacement or of a file being written
+                    while (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (fileName.equals(event.context()))
+                                changed = true;
+                        }
+                        key.reset();
+                        key = watchService.poll(WATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    if (changed)
+                        reload();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // closed
+            }
+        }, "aptagger-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    // Stops watching and reloading. The current tagger can still be used
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.watchService != null)
+            this.watchService.close();
+        this.loader.shutdown();
+    }
+}
@@ -0,0 +1,58 @@
+package com.turbolent.aptagger;
+
+/**
+ * Loops summing dense weight rows into label scores, written so C2 compiles them
+ * to SIMD instructions: plain counted loops over arrays, without calls or branches.
+ * <p>
+ * Each row is its own array: C2 does not vectorize loops which index a row at an offset
+ * into one large array. Rows are padded to a multiple of {@link #LANES} labels,
+ * with zero weights, so a row can be added with whole vectors and no scalar remainder,
+ * if the scores are padded as well.
+ */
+final class ScoringKernel {
+    // floats in a 256-bit vector
+    static final int LANES = 8;
+
+    private ScoringKernel() {
+    }
+
+    // Returns the length of padded rows of the given number of labels
+    static int getStride(int labelCount) {
+        return (labelCount + LANES - 1) / LANES * LANES;
+    }
+
+    // Adds the given number of weights of the row to the scores
+    static void add(float[] row, float[] scores, int length) {
+        for (int labelId = 0; labelId < length; labelId++)
+            scores[labelId] += row[labelId];
+    }
+
+    /**
+     * Adds the weights of the row to the scores, and returns the first label with
+     * the highest score, finding it while adding instead of in a second pass.
+     */
+    static int addAndGetBest(float[] row, float[] scores, int labelCount) {
+        int best = 0;
+        float bestScore = scores[0] + row[0];
+        scores[0] = bestScore;
+        for (int labelId = 1; labelId < labelCount; labelId++) {
+            float score = scores[labelId] + row[labelId];
+            scores[labelId] = score;
+            if (score > bestScore) {
+                best = labelId;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // Returns the first label with the highest score
+    static int getBest(float[] scores, int labelCount) {
+        int best = 0;
+        for (int labelId = 1; labelId < labelCount; labelId++) {
+            if (scores[labelId] > scores[best])
+                best = labelId;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,202 @@
+package com.turbolent.aptagger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often each word occurs with each tag, to find the closed-class words
+ * of the tag dictionary. Words and tags are interned as ids, and the counts are kept
+ * in a primitive open-addressing table keyed by the word and tag ids, so counting
+ * does not allocate per token.
+ * <p>
+ * Not thread-safe: threads count into their own instances, which are merged with
+ * {@link #addAll}. Tags keep the order in which they were first counted.
+ */
+public class TagCounts {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    // Interns strings as ids, in the order they were first added
+    private static final class Strings {
+        String[] strings = new String[INITIAL_CAPACITY];
+        int size = 0;
+        private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+        Strings() {
+            Arrays.fill(this.slots, -1);
+        }
+
+        private static int hash(String string) {
+            int hash = string.hashCode();
+            return hash ^ (hash >>> 16);
+        }
+
+        int intern(String string) {
+            int mask = this.slots.length - 1;
+            int slot = hash(string) & mask;
+            while (true) {
+                int id = this.slots[slot];
+                if (id < 0)
+                    break;
+                if (this.strings[id].equals(string))
+                    return id;
+                slot = (slot + 1) & mask;
+            }
+
+            int id = this.size;
+            if (id == this.strings.length)
+                this.strings = Arrays.copyOf(this.strings, id * 2);
+            this.strings[id] = string;
+            this.slots[slot] = id;
+            this.size += 1;
+
+            if (this.size * 2 > this.slots.length)
+                grow();
+            return id;
+        }
+
+        private void grow() {
+            int[] slots = new int[this.slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int id = 0; id < this.size; id++) {
+                int slot = hash(this.strings[id]) & mask;
+                while (slots[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                slots[slot] = id;
+            }
+            this.slots = slots;
+        }
+    }
+
+    private final Strings words = new Strings();
+    private final Strings tags = new Strings();
+
+    // the count of each word and tag pair, keyed by the word id in the upper
+    // and the tag id plus one in the lower half, so no key is zero
+    private long[] keys = new long[INITIAL_CAPACITY * 2];
+    private int[] counts = new int[INITIAL_CAPACITY * 2];
+    private int size = 0;
+
+    private static int hash(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    public void add(String word, String tag) {
+        add(word, tag, 1);
+    }
+
+    public void add(String word, String tag, int count) {
+        long key = ((long) this.words.intern(word) << 32) | (this.tags.intern(tag) + 1);
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long slotKey = this.keys[slot];
+            if (slotKey == key) {
+                this.counts[slot] += count;
+                return;
+            }
+            if (slotKey == 0)
+                break;
+            slot = (slot + 1) & mask;
+        }
+
+        this.keys[slot] = key;
+        this.counts[slot] = count;
+        this.size += 1;
+        if (this.size * 2 > this.keys.length)
+            grow();
+    }
+
+    private void grow() {
+        long[] keys = new long[this.keys.length * 2];
+        int[] counts = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int oldSlot = 0; oldSlot < this.keys.length; oldSlot++) {
+            long key = this.keys[oldSlot];
+            if (key == 0)
+                continue;
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            counts[slot] = this.counts[oldSlot];
+        }
+        this.keys = keys;
+        this.counts = counts;
+    }
+
+    public void add(TaggedSentence sentence) {
+        for (int index = 0; index < sentence.words.size(); index++)
+            add(sentence.words.get(index), sentence.tags.get(index));
+    }
+
+    // Adds the counts of the given instance. Its tags not counted yet
+    // are added in their order
+    public void addAll(TagCounts other) {
+        for (int tagId = 0; tagId < other.tags.size; tagId++)
+            this.tags.intern(other.tags.strings[tagId]);
+
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            long key = other.keys[slot];
+            if (key == 0)
+                continue;
+            add(other.words.strings[(int) (key >>> 32)],
+                other.tags.strings[(int) key - 1],
+                other.counts[slot]);
+        }
+    }
+
+    public int getWordCount() {
+        return this.words.size;
+    }
+
+    public List<String> getTags() {
+        return new ArrayList<>(Arrays.asList(this.tags.strings).subList(0, this.tags.size));
+    }
+
+    /**
+     * Returns the tag dictionary: the words which occur more often than the frequency
+     * threshold and with their most frequent tag at least in the ratio of
+     * the ambiguity threshold.
+     */
+    public Map<String, String> getDictionary(int frequencyThreshold, float ambiguityThreshold) {
+        int wordCount = this.words.size;
+        int[] totals = new int[wordCount];
+        int[] modes = new int[wordCount];
+        int[] modeTagIds = new int[wordCount];
+        String[] tags = this.tags.strings;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            long key = this.keys[slot];
+            if (key == 0)
+                continue;
+            int wordId = (int) (key >>> 32);
+            int count = this.counts[slot];
+            totals[wordId] += count;
+            int tagId = (int) key - 1;
+            // ties are resolved by the tags, independent of the slot and the tag order
+            if (count > modes[wordId]
+                || (count == modes[wordId]
+                    && tags[tagId].compareTo(tags[modeTagIds[wordId]]) < 0))
+            {
+                modes[wordId] = count;
+                modeTagIds[wordId] = tagId;
+            }
+        }
+
+        Map<String, String> dictionary = new HashMap<>();
+        for (int wordId = 0; wordId < wordCount; wordId++) {
+            int total = totals[wordId];
+            if (total > frequencyThreshold
+                && ((float) modes[wordId]) / total >= ambiguityThreshold)
+            {
+                dictionary.put(this.words.strings[wordId],
+                               tags[modeTagIds[wordId]]);
+            }
+        }
+        return dictionary;
+    }
+}
@@ -2,8 +2,13 @@ package com.turbolent.aptagger;
 
 import org.msgpack.MessagePack;
 import org.msgpack.packer.Packer;
+import org.msgpack.template.ByteArrayTemplate;
+import org.msgpack.template.FloatArrayTemplate;
+import org.msgpack.template.LongArrayTemplate;
+import org.msgpack.template.ShortArrayTemplate;
 import org.msgpack.template.SetTemplate;
 import org.msgpack.template.Template;
+import org.msgpack.type.ValueType;
 import org.msgpack.unpacker.Unpacker;
 
 import java.io.File;
@@ -12,99 +17,531 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.msgpack.template.Templates.*;
 
+/**
+ * Tags sentences with a closed-class tag dictionary and an averaged perceptron.
+ * <p>
+ * Instances are immutable and thread-safe: a single tagger can be shared by any
+ * number of threads. Scratch buffers are kept per thread, or per {@link TaggingSession}.
+ */
 public class Tagger {
+    public enum Format {
+        MSGPACK,
+        MAPPED
+    }
+
+    public interface MetricsListener extends AveragedPerceptron.MetricsListener {
+        void onTagged(int wordCount, int dictionaryHitCount, long nanos);
+
+        void onLoaded(Path path, long nanos);
+    }
+
     protected static final String[] START = {"-START-", "-START2-"};
     protected static final String[] END = {"-END-", "-END2-"};
-    protected static final Pattern NUMBER = Pattern.compile("[0-9][0-9,.]*");
     protected static final Template<Map<String, String>> TAGS_TEMPLATE =
         tMap(TString, TString);
     protected static final Template<Map<String, Map<String, Float>>> WEIGHTS_TEMPLATE =
         tMap(TString, tMap(TString, TFloat));
     protected static final Template<Set<String>> LABELS_TEMPLATE =
         new SetTemplate<>(TString);
+    protected static final Template<List<String>> LABEL_LIST_TEMPLATE =
+        tList(TString);
+    // the second version added the quantization of the weights, and the third one
+    // changed the hashing of the feature ids, see Features, so older models can't be loaded
+    protected static final int FORMAT_VERSION = 3;
+    protected static final int MINIMUM_BATCH_SIZE = 16;
+    protected static final int BATCHES_PER_PROCESSOR = 4;
 
-    private static boolean isNumber(String string) {
-        return NUMBER.matcher(string).matches();
-    }
+    // Buffers reused by the tagging of one thread, see TaggingSession
+    static final class Scratch {
+        final Features features = new Features();
+        final Features staticFeatures = new Features();
+        final Context context = new Context();
+
+        float[] scores = new float[0];
+        float[] staticScores = new float[0];
 
-    private static String normalize(String word) {
-        if (isNumber(word))
-            return "!NUMBER";
-        return word.toLowerCase();
+        float[] getScores(int labelCount) {
+            if (this.scores.length < labelCount)
+                this.scores = new float[ScoringKernel.getStride(labelCount)];
+            return this.scores;
+        }
+
+        float[] getStaticScores(int labelCount) {
+            if (this.staticScores.length < labelCount)
+                this.staticScores = new float[ScoringKernel.getStride(labelCount)];
+            return this.staticScores;
+        }
+
+        Beam beam;
+
+        Beam getBeam(int width, int labelCount) {
+            Beam beam = this.beam;
+            if (beam == null || beam.width != width || beam.labelScores[0].length < labelCount) {
+                beam = new Beam(width, labelCount);
+                this.beam = beam;
+            }
+            return beam;
+        }
+
+        String[] tags = new String[0];
+
+        String[] getTags(int wordCount) {
+            if (this.tags.length < wordCount)
+                this.tags = new String[Math.max(wordCount, this.tags.length * 2)];
+            return this.tags;
+        }
+
+        // tags and parents of the hypotheses after each word, for the backtracking
+        String[][] history = new String[0][];
+        int[][] parents = new int[0][];
+
+        void reserveHistory(int wordCount, int width) {
+            if (this.history.length < wordCount
+                || (this.history.length > 0 && this.history[0].length < width))
+            {
+                int capacity = Math.max(wordCount, this.history.length * 2);
+                this.history = new String[capacity][width];
+                this.parents = new int[capacity][width];
+            }
+        }
     }
 
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
     protected final AveragedPerceptron perceptron;
     protected final Map<String, String> tags;
+    protected final MetricsListener metrics;
+    protected final TaggerCache cache;
 
     protected Tagger(Map<String, String> tags, AveragedPerceptron perceptron) {
+        this(tags, perceptron, null);
+    }
+
+    protected Tagger(Map<String, String> tags, AveragedPerceptron perceptron,
+                     MetricsListener metrics)
+    {
+        this(tags, perceptron, metrics, null);
+    }
+
+    protected Tagger(Map<String, String> tags, AveragedPerceptron perceptron,
+                     MetricsListener metrics, TaggerCache cache)
+    {
         this.tags = tags;
         this.perceptron = perceptron;
+        this.metrics = metrics;
+        this.cache = cache;
     }
 
-    protected Tagger(Map<String, Map<String, Float>> weights,
-                     Map<String, String> tags, Set<String> labels)
-    {
-        this(tags, new AveragedPerceptron(weights, labels));
+    /**
+     * Returns a tagger sharing this one's model, which reports to the given listener,
+     * or no longer reports if the listener is null. Without a listener no metrics
+     * are gathered at all.
+     */
+    public Tagger withMetrics(MetricsListener metrics) {
+        return new Tagger(this.tags, this.perceptron.withMetrics(metrics),
+                          metrics, this.cache);
+    }
+
+    /**
+     * Returns a tagger sharing this one's model, which uses the given cache,
+     * or no cache if it is null. Sentences answered from the cache are counted
+     * by the cache, and are not reported to the metrics listener.
+     */
+    public Tagger withCache(TaggerCache cache) {
+        return new Tagger(this.tags, this.perceptron, this.metrics, cache);
+    }
+
+    public static Tagger loadFrom(Path inputPath, MetricsListener metrics) throws IOException {
+        long start = System.nanoTime();
+        Tagger tagger = loadFrom(inputPath);
+        metrics.onLoaded(inputPath, System.nanoTime() - start);
+        return tagger.withMetrics(metrics);
     }
 
     public static Tagger loadFrom(Path inputPath) throws IOException {
+        if (MappedModelFile.isMappedModel(inputPath))
+            return MappedModelFile.load(inputPath);
+
         File inputFile = inputPath.toFile();
 
         try (FileInputStream fileStream = new FileInputStream(inputFile);
              Unpacker unpacker = new MessagePack().createUnpacker(fileStream))
         {
+            // legacy models start with the tags, versioned ones with the version
+            if (unpacker.getNextType() != ValueType.INTEGER) {
+                Map<String, String> tags = unpacker.read(TAGS_TEMPLATE);
+                Map<String, Map<String, Float>> weights = unpacker.read(WEIGHTS_TEMPLATE);
+                Set<String> labels = unpacker.read(LABELS_TEMPLATE);
+
+                return new Tagger(tags, AveragedPerceptron.fromLegacy(weights, labels));
+            }
+
+            int version = unpacker.readInt();
+            checkVersion("model format", version, FORMAT_VERSION);
+
             Map<String, String> tags = unpacker.read(TAGS_TEMPLATE);
-            Map<String, Map<String, Float>> weights = unpacker.read(WEIGHTS_TEMPLATE);
-            Set<String> labels = unpacker.read(LABELS_TEMPLATE);
+            List<String> labelList = unpacker.read(LABEL_LIST_TEMPLATE);
+            String[] labels = labelList.toArray(new String[labelList.size()]);
+            long[] features = unpacker.read(LongArrayTemplate.getInstance());
 
-            return new Tagger(weights, tags, labels);
+            String name = unpacker.readString();
+            Quantization quantization;
+            try {
+                quantization = Quantization.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported weight quantization " + name);
+            }
+
+            WeightStore weights;
+            switch (quantization) {
+                case FLOAT16:
+                    weights = new Float16WeightStore(labels.length, features,
+                                                     unpacker.read(ShortArrayTemplate
+                                                                       .getInstance()));
+                    break;
+                case INT8:
+                    byte[] bytes = unpacker.read(ByteArrayTemplate.getInstance());
+                    float[] scales = unpacker.read(FloatArrayTemplate.getInstance());
+                    weights = new Int8WeightStore(labels.length, features, bytes, scales);
+                    break;
+                default:
+                    weights = new HeapWeightStore(labels.length, features,
+                                                  unpacker.read(FloatArrayTemplate
+                                                                    .getInstance()));
+                    break;
+            }
+
+            return new Tagger(tags, new AveragedPerceptron(labels, weights));
+        }
+    }
+
+    // Fails for other versions of the given format than the current one. The feature ids
+    // of older versions were hashed differently and can't be rehashed, so they must be retrained
+    static void checkVersion(String format, int version, int currentVersion) throws IOException {
+        if (version < 1 || version > currentVersion)
+            throw new IOException("Unsupported " + format + " version " + version);
+        if (version < currentVersion) {
+            String message = String.format("Unsupported %s version %d: its feature ids "
+                                           + "were hashed differently, so it must be retrained",
+                                           format, version);
+            throw new IOException(message);
         }
     }
 
     public void saveTo(Path outputPath) throws IOException {
+        saveTo(outputPath, Format.MSGPACK);
+    }
+
+    public void saveTo(Path outputPath, Format format) throws IOException {
+        if (format == Format.MAPPED) {
+            MappedModelFile.save(outputPath, this.tags, this.perceptron);
+            return;
+        }
+
         File outputFile = outputPath.toFile();
 
+        WeightStore weights = this.perceptron.weights;
+        Quantization quantization = weights.getQuantization();
+
         try (FileOutputStream fileStream = new FileOutputStream(outputFile);
              Packer packer = new MessagePack().createPacker(fileStream))
         {
+            packer.write(FORMAT_VERSION);
             packer.write(this.tags);
-            packer.write(this.perceptron.weights);
-            packer.write(this.perceptron.labels);
+            packer.write(Arrays.asList(this.perceptron.labels));
+            packer.write(this.perceptron.getFeatures());
+            packer.write(quantization.name());
+            switch (quantization) {
+                case FLOAT16:
+                    packer.write(Quantization.toFloat16(weights));
+                    break;
+                case INT8:
+                    float[] scales = new float[weights.getFeatureCount()];
+                    packer.write(Quantization.toInt8(weights, scales));
+                    packer.write(scales);
+                    break;
+                default:
+                    packer.write(this.perceptron.getWeights());
+                    break;
+            }
         }
     }
 
-    protected static List<String> getContext(List<String> words) {
-        return Stream.concat(Stream.concat(Arrays.stream(START),
-                                           words.stream().map(Tagger::normalize)),
-                             Arrays.stream(END))
-                     .collect(Collectors.toList());
+    /**
+     * Counts how often each feature of the model occurs in the given sentences,
+     * with the tags of the sentences as the previous tags. Words found
+     * in the dictionary are skipped, like when tagging. Returns the frequencies
+     * indexed by row, as expected by {@link #prune}.
+     */
+    public int[] getFeatureFrequencies(List<TaggedSentence> sentences) {
+        WeightStore weights = this.perceptron.weights;
+        int[] frequencies = new int[weights.getFeatureCount()];
+        Features features = new Features();
+        Context context = new Context();
+        int offset = START.length;
+        for (TaggedSentence sentence : sentences) {
+            context.reset(sentence.words);
+            String prev = START[0];
+            String prev2 = START[1];
+            for (int index = 0; index < sentence.words.size(); index++) {
+                String word = sentence.words.get(index);
+                if (!this.tags.containsKey(word)) {
+                    features.extract(offset + index, word, context, prev, prev2);
+                    for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+                        int row = weights.findRow(features.ids[featureIndex]);
+                        if (row >= 0)
+                            frequencies[row] += 1;
+                    }
+                }
+                prev2 = prev;
+                prev = sentence.tags.get(index);
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * Returns a tagger without the features whose weights have an L1 norm below the
+     * given minimum weight, and, if frequencies are given, without the features whose
+     * frequency is below the given minimum frequency. The returned tagger has no cache.
+     *
+     * @see #getFeatureFrequencies
+     */
+    public Tagger prune(int[] frequencies, int minimumFrequency, float minimumWeight) {
+        return new Tagger(this.tags,
+                          this.perceptron.prune(frequencies, minimumFrequency, minimumWeight),
+                          this.metrics);
+    }
+
+    // Returns a tagger with the weights encoded with the given quantization, and no cache
+    public Tagger quantize(Quantization quantization) {
+        return new Tagger(this.tags, this.perceptron.quantize(quantization), this.metrics);
+    }
+
+    // Returns a tagger with the weights outside of the heap, and no cache
+    public Tagger toOffHeap() {
+        return new Tagger(this.tags, this.perceptron.toOffHeap(), this.metrics);
+    }
+
+    /**
+     * Returns a new session for tagging with this tagger on one thread,
+     * into arrays given by the caller, see {@link TaggingSession}.
+     */
+    public TaggingSession newSession() {
+        return new TaggingSession(this);
     }
 
     public List<String> tag(List<String> words) {
-        List<String> context = getContext(words);
+        if (this.cache == null)
+            return tag(words, null);
+
+        BoundedCache<List<String>, List<String>> sentences = this.cache.sentences;
+        List<String> tags = sentences.get(words);
+        if (tags == null) {
+            tags = tag(words, null);
+            sentences.put(Collections.unmodifiableList(new ArrayList<>(words)),
+                          Collections.unmodifiableList(new ArrayList<>(tags)));
+            return tags;
+        }
+        return new ArrayList<>(tags);
+    }
+
+    // Returns a new list of the first tags of the given array, which the caller may modify
+    private static List<String> toList(String[] tags, int wordCount) {
+        List<String> result = new ArrayList<>(wordCount);
+        for (int index = 0; index < wordCount; index++)
+            result.add(tags[index]);
+        return result;
+    }
+
+    /**
+     * Tags the given words and fills the given array, if any, with the confidence of each tag:
+     * the softmax probability of the predicted label, or 1 for words found in the dictionary.
+     */
+    public List<String> tag(List<String> words, float[] confidences) {
+        int wordCount = words.size();
+        Scratch scratch = SCRATCH.get();
+        String[] tags = scratch.getTags(wordCount);
+        tag(words, confidences, scratch, tags);
+        return toList(tags, wordCount);
+    }
+
+    // Tags the given words into the first elements of the given array,
+    // using the given buffers, without allocating
+    void tag(List<String> words, float[] confidences, Scratch scratch, String[] tags) {
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        int dictionaryHitCount = 0;
+
+        Context context = scratch.context;
+        context.reset(words);
         String prev = START[0];
         String prev2 = START[1];
         int offset = START.length;
-        List<String> tags = new ArrayList<>();
+        Features features = scratch.features;
+        Features staticFeatures = scratch.staticFeatures;
+        int labelCount = this.perceptron.getLabelCount();
+        float[] scores = scratch.getScores(labelCount);
+        float[] staticScores = scratch.getStaticScores(labelCount);
         for (int index = 0; index < words.size(); index++) {
             String word = words.get(index);
 
             String tag = this.tags.get(word);
             if (tag == null) {
-                Features features =
-                    Features.getFeatures(offset + index, word, context, prev, prev2);
-                tag = this.perceptron.predict(features);
+                staticFeatures.extractStatic(offset + index, word, context);
+                int staticUnknownFeatureCount =
+                    this.perceptron.scoreStatic(staticFeatures, staticScores);
+                features.extractDynamic(offset + index, context, prev, prev2);
+                int labelId = this.perceptron.predict(staticScores, staticUnknownFeatureCount,
+                                                      features, scores);
+                tag = this.perceptron.labels[labelId];
+                if (confidences != null)
+                    confidences[index] = this.perceptron.getConfidence(scores, labelId);
+            } else {
+                dictionaryHitCount += 1;
+                if (confidences != null)
+                    confidences[index] = 1.f;
             }
-            tags.add(tag);
+            tags[index] = tag;
             prev2 = prev;
             prev = tag;
         }
-        return tags;
+
+        if (this.metrics != null)
+            this.metrics.onTagged(words.size(), dictionaryHitCount, System.nanoTime() - start);
+    }
+
+    /**
+     * Tags the given words with a beam search, which keeps the given number of best
+     * tag sequences instead of committing to the best tag of each word in turn.
+     * Sequences are scored by the sum of their perceptron scores, and words found
+     * in the dictionary keep their tag. A beam width of 1 is the greedy search of
+     * {@link #tag(List)}. Wider beams don't use the cache, which holds the tags
+     * of the greedy search.
+     */
+    public List<String> tag(List<String> words, int beamWidth) {
+        if (beamWidth <= 1)
+            return tag(words);
+
+        int wordCount = words.size();
+        Scratch scratch = SCRATCH.get();
+        String[] tags = scratch.getTags(wordCount);
+        tag(words, beamWidth, scratch, tags);
+        return toList(tags, wordCount);
+    }
+
+    // Tags the given words with a beam search of the given width, which must be
+    // greater than 1, into the first elements of the given array, using the given buffers
+    void tag(List<String> words, int beamWidth, Scratch scratch, String[] tags) {
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        int dictionaryHitCount = 0;
+
+        Context context = scratch.context;
+        context.reset(words);
+        int offset = START.length;
+        int wordCount = words.size();
+        String[] labels = this.perceptron.labels;
+        int labelCount = labels.length;
+        Features features = scratch.features;
+        Features staticFeatures = scratch.staticFeatures;
+        float[] staticScores = scratch.getStaticScores(labelCount);
+        Beam beam = scratch.getBeam(beamWidth, labelCount);
+        float[][] labelScores = beam.labelScores;
+
+        scratch.reserveHistory(wordCount, beamWidth);
+        String[][] history = scratch.history;
+        int[][] parents = scratch.parents;
+        beam.start(START[0], START[1]);
+        for (int index = 0; index < wordCount; index++) {
+            String word = words.get(index);
+
+            String tag = this.tags.get(word);
+            if (tag == null) {
+                // the static scores are shared by all hypotheses
+                staticFeatures.extractStatic(offset + index, word, context);
+                int staticUnknownFeatureCount =
+                    this.perceptron.scoreStatic(staticFeatures, staticScores);
+                for (int hypothesis = 0; hypothesis < beam.size; hypothesis++) {
+                    features.extractDynamic(offset + index, context, beam.prevs[hypothesis],
+                                            beam.prev2s[hypothesis]);
+                    this.perceptron.score(staticScores, staticUnknownFeatureCount,
+                                          features, labelScores[hypothesis]);
+                }
+                for (int hypothesis = 0; hypothesis < beam.size; hypothesis++) {
+                    float score = beam.scores[hypothesis];
+                    float[] scores = labelScores[hypothesis];
+                    for (int labelId = 0; labelId < labelCount; labelId++)
+                        beam.offer(labels[labelId], hypothesis, score + scores[labelId]);
+                }
+            } else {
+                dictionaryHitCount += 1;
+                for (int hypothesis = 0; hypothesis < beam.size; hypothesis++)
+                    beam.offer(tag, hypothesis, beam.scores[hypothesis]);
+            }
+            beam.advance(history[index], parents[index]);
+        }
+
+        for (int index = wordCount - 1, hypothesis = 0; index >= 0; index--) {
+            tags[index] = history[index][hypothesis];
+            hypothesis = parents[index][hypothesis];
+        }
+
+        if (this.metrics != null)
+            this.metrics.onTagged(wordCount, dictionaryHitCount, System.nanoTime() - start);
+    }
+
+    /**
+     * Tags the given sentences in parallel on the common fork-join pool.
+     * The returned tags are in the same order as the sentences.
+     */
+    public List<List<String>> tagAll(List<List<String>> sentences) {
+        return tagAll(sentences, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tags the given sentences in parallel, in batches run on the given executor.
+     * The returned tags are in the same order as the sentences.
+     */
+    public List<List<String>> tagAll(List<List<String>> sentences, Executor executor) {
+        List<List<String>> input = sentences instanceof RandomAccess
+                                   ? sentences
+                                   : new ArrayList<>(sentences);
+        int sentenceCount = input.size();
+        List<List<String>> results = new ArrayList<>(Collections.nCopies(sentenceCount, null));
+
+        int processorCount = Runtime.getRuntime().availableProcessors();
+        int batchSize =
+            Math.max(MINIMUM_BATCH_SIZE,
+                     (sentenceCount + processorCount * BATCHES_PER_PROCESSOR - 1)
+                     / (processorCount * BATCHES_PER_PROCESSOR));
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < sentenceCount; start += batchSize) {
+            int batchStart = start;
+            int batchEnd = Math.min(sentenceCount, start + batchSize);
+            batches.add(CompletableFuture.runAsync(() -> {
+                for (int index = batchStart; index < batchEnd; index++)
+                    results.set(index, tag(input.get(index)));
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+
+        return results;
     }
 }
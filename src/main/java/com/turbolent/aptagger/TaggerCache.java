@@ -0,0 +1,31 @@
+package com.turbolent.aptagger;
+
+import java.util.List;
+
+/**
+ * Caches the tags of whole sentences, to avoid tagging repeated input again.
+ * Safe to share between threads.
+ * <p>
+ * Only {@link Tagger#tag(List)} uses the cache. The tagging with confidences,
+ * the beam search and tagging sessions tag each sentence.
+ * <p>
+ * The tags of sentences depend on the model, so a cache must only be used
+ * by taggers sharing the same model.
+ *
+ * @see Tagger#withCache
+ */
+public class TaggerCache {
+    public final BoundedCache<List<String>, List<String>> sentences;
+
+    // Creates a cache for the given number of sentences
+    public TaggerCache(int sentenceCapacity) {
+        this.sentences = new BoundedCache<>(sentenceCapacity);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sentence cache: size %d, hits %d, misses %d, hit ratio %.3f\n",
+                             this.sentences.size(), this.sentences.getHitCount(),
+                             this.sentences.getMissCount(), this.sentences.getHitRatio());
+    }
+}
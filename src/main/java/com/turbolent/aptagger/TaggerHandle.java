@@ -0,0 +1,44 @@
+package com.turbolent.aptagger;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A reference to the tagger in use, which can be replaced while tagging, e.g. by a tagger
+ * with weights trained further. Each call tags with the tagger current at its start,
+ * so callers never wait for a swap and never see a partially replaced model.
+ * Safe to share between threads.
+ */
+public class TaggerHandle {
+    private final AtomicReference<Tagger> tagger;
+
+    public TaggerHandle(Tagger tagger) {
+        this.tagger = new AtomicReference<>(tagger);
+    }
+
+    public Tagger get() {
+        return this.tagger.get();
+    }
+
+    // Replaces the tagger and returns the previous one
+    public Tagger set(Tagger tagger) {
+        return this.tagger.getAndSet(tagger);
+    }
+
+    public List<String> tag(List<String> words) {
+        return get().tag(words);
+    }
+
+    public List<String> tag(List<String> words, int beamWidth) {
+        return get().tag(words, beamWidth);
+    }
+
+    public List<List<String>> tagAll(List<List<String>> sentences) {
+        return get().tagAll(sentences);
+    }
+
+    public List<List<String>> tagAll(List<List<String>> sentences, Executor executor) {
+        return get().tagAll(sentences, executor);
+    }
+}
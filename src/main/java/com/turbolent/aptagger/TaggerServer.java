@@ -0,0 +1,301 @@
+package com.turbolent.aptagger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP server which tags sentences with a loaded model, bound to the loopback address.
+ * <p>
+ * Requests are queued, and a batching thread combines all queued requests into one
+ * batch, up to the batch size, which is tagged in parallel. While a batch is tagged,
+ * new requests queue up for the next one. The queue is bounded: when it is full,
+ * requests are rejected with status 503, so clients back off instead of the server
+ * running out of memory.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>{@code POST /tag}: tags the request body, which should contain one sentence of words
+ * separated by spaces per line, and responds with one tagged sentence per line,
+ * in the format of the tag-file command</li>
+ * <li>{@code GET /health}: responds with "ok"</li>
+ * <li>{@code GET /metrics}: responds with the server's counters and the statistics</li>
+ * <li>{@code POST /reload}: if the tagger is reloadable, reloads the model and responds
+ * when the new model is in use</li>
+ * </ul>
+ */
+public class TaggerServer {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int MAXIMUM_REQUEST_SIZE = 1 << 20;
+
+    private static final class Request {
+        final HttpExchange exchange;
+        final List<List<String>> sentences;
+        final long start;
+
+        Request(HttpExchange exchange, List<List<String>> sentences, long start) {
+            this.exchange = exchange;
+            this.sentences = sentences;
+            this.start = start;
+        }
+    }
+
+    private final TaggerHandle tagger;
+    private final TaggerStatistics statistics;
+    private final BlockingQueue<Request> requests;
+    private final int batchSize;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final Thread batcher;
+
+    public final LongAdder acceptedRequests = new LongAdder();
+    public final LongAdder rejectedRequests = new LongAdder();
+    public final LongAdder failedRequests = new LongAdder();
+    public final LongAdder batches = new LongAdder();
+    public final LongAdder batchedSentences = new LongAdder();
+    public final LatencyHistogram requestLatencies = new LatencyHistogram();
+
+    /**
+     * Creates a server for the given tagger, which is not started yet. Port 0 binds
+     * an ephemeral port, see {@link #getPort}. The statistics may be null.
+     */
+    public TaggerServer(TaggerHandle tagger, TaggerStatistics statistics, int port,
+                        int queueCapacity, int batchSize)
+        throws IOException
+    {
+        this.tagger = tagger;
+        this.statistics = statistics;
+        this.requests = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        this.server = HttpServer.create(address, 0);
+        this.handlers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.server.setExecutor(this.handlers);
+        this.server.createContext("/tag", this::handleTag);
+        this.server.createContext("/health", this::handleHealth);
+        this.server.createContext("/metrics", this::handleMetrics);
+        if (tagger instanceof ReloadableTaggerHandle)
+            this.server.createContext("/reload", this::handleReload);
+
+        this.batcher = new Thread(this::runBatches, "aptagger-batcher");
+        this.batcher.setDaemon(true);
+    }
+
+    public void start() {
+        this.batcher.start();
+        this.server.start();
+    }
+
+    // Stops accepting requests and rejects the queued ones
+    public void stop() {
+        this.server.stop(0);
+        this.batcher.interrupt();
+        try {
+            this.batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Request> pending = new ArrayList<>();
+        this.requests.drainTo(pending);
+        for (Request request : pending)
+            respond(request.exchange, 503, "Server stopped\n");
+        this.handlers.shutdown();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public int getQueueSize() {
+        return this.requests.size();
+    }
+
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>();
+        List<List<String>> sentences = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(this.requests.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            int sentenceCount = batch.get(0).sentences.size();
+            Request request;
+            while (sentenceCount < this.batchSize && (request = this.requests.poll()) != null) {
+                batch.add(request);
+                sentenceCount += request.sentences.size();
+            }
+
+            tagBatch(batch, sentences);
+            batch.clear();
+            sentences.clear();
+        }
+    }
+
+    private void tagBatch(List<Request> batch, List<List<String>> sentences) {
+        for (Request request : batch)
+            sentences.addAll(request.sentences);
+
+        List<List<String>> sentenceTags;
+        try {
+            sentenceTags = this.tagger.tagAll(sentences);
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                this.failedRequests.increment();
+                respond(request.exchange, 500, "Failed: " + e + "\n");
+            }
+            return;
+        }
+
+        this.batches.increment();
+        this.batchedSentences.add(sentences.size());
+
+        int start = 0;
+        for (Request request : batch) {
+            int end = start + request.sentences.size();
+            List<List<String>> requestTags = sentenceTags.subList(start, end);
+            start = end;
+            this.handlers.execute(() -> {
+                StringWriter writer = new StringWriter();
+                writeTaggedSentences(writer, request.sentences, requestTags);
+                respond(request.exchange, 200, writer.toString());
+                this.requestLatencies.record(System.nanoTime() - request.start);
+            });
+        }
+    }
+
+    private static void writeTaggedSentences(StringWriter writer, List<List<String>> sentences,
+                                             List<List<String>> sentenceTags)
+    {
+        for (int sentenceIndex = 0; sentenceIndex < sentences.size(); sentenceIndex++) {
+            List<String> words = sentences.get(sentenceIndex);
+            List<String> tags = sentenceTags.get(sentenceIndex);
+            for (int i = 0; i < words.size(); i++) {
+                if (i > 0)
+                    writer.write(CommandLineInterface.SENTENCE_SEPARATOR_CHAR);
+                writer.write(words.get(i));
+                writer.write(CommandLineInterface.TOKEN_SEPARATOR_CHAR);
+                writer.write(tags.get(i));
+            }
+            writer.write('\n');
+        }
+    }
+
+    private void handleTag(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Method not allowed\n");
+            return;
+        }
+
+        String body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413, "Request too large\n");
+            return;
+        }
+
+        List<List<String>> sentences = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(body))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                sentences.add(CommandLineInterface.asWords(line));
+        }
+
+        if (!this.requests.offer(new Request(exchange, sentences, start))) {
+            this.rejectedRequests.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, "Queue full\n");
+            return;
+        }
+        this.acceptedRequests.increment();
+    }
+
+    // Returns null if the body is larger than the maximum request size
+    private static String readBody(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, count);
+            if (output.size() > MAXIMUM_REQUEST_SIZE)
+                return null;
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void handleHealth(HttpExchange exchange) {
+        respond(exchange, 200, "ok\n");
+    }
+
+    private void handleReload(HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Method not allowed\n");
+            return;
+        }
+
+        ((ReloadableTaggerHandle) this.tagger).reload()
+            .whenComplete((tagger, exception) -> {
+                // the handle no longer reloads once it is closed
+                if (exception instanceof RejectedExecutionException)
+                    respond(exchange, 503, "Reloading stopped\n");
+                else if (exception != null)
+                    respond(exchange, 500, "Failed: " + exception + "\n");
+                else
+                    respond(exchange, 200, "ok\n");
+            });
+    }
+
+    private void handleMetrics(HttpExchange exchange) {
+        long batchCount = this.batches.sum();
+        String metrics =
+            String.format("accepted requests: %d\nrejected requests: %d\nfailed requests: %d\n"
+                          + "queued requests: %d\nbatches: %d\nmean batch size: %.1f\n"
+                          + "request latency: count %d, mean %.0fns, p50 %dns, p99 %dns, "
+                          + "max %dns\n",
+                          this.acceptedRequests.sum(), this.rejectedRequests.sum(),
+                          this.failedRequests.sum(), this.requests.size(), batchCount,
+                          batchCount == 0 ? 0. : (double) this.batchedSentences.sum() / batchCount,
+                          this.requestLatencies.getCount(), this.requestLatencies.getMean(),
+                          this.requestLatencies.getPercentile(50),
+                          this.requestLatencies.getPercentile(99),
+                          this.requestLatencies.getMax());
+        if (this.statistics != null)
+            metrics += this.statistics.toString();
+        respond(exchange, 200, metrics);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream output = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            output.write(bytes);
+        } catch (IOException e) {
+            // the client disconnected
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.turbolent.aptagger;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics listener which counts dictionary hits, predictions and unknown features,
+ * and records tagging latencies by sentence length and model loading latencies.
+ * Safe to share between threads.
+ */
+public class TaggerStatistics implements Tagger.MetricsListener {
+    // upper bounds of the sentence lengths of each tagging latency histogram
+    public static final int[] SENTENCE_LENGTH_BOUNDS = {5, 10, 20, 40, 80, Integer.MAX_VALUE};
+
+    public final LongAdder sentences = new LongAdder();
+    public final LongAdder words = new LongAdder();
+    public final LongAdder dictionaryHits = new LongAdder();
+    public final LongAdder predictions = new LongAdder();
+    public final LongAdder features = new LongAdder();
+    public final LongAdder unknownFeatures = new LongAdder();
+    public final LatencyHistogram[] tagLatencies =
+        new LatencyHistogram[SENTENCE_LENGTH_BOUNDS.length];
+    public final LatencyHistogram loadLatencies = new LatencyHistogram();
+
+    public TaggerStatistics() {
+        for (int index = 0; index < this.tagLatencies.length; index++)
+            this.tagLatencies[index] = new LatencyHistogram();
+    }
+
+    public static int getSentenceLengthIndex(int wordCount) {
+        int index = 0;
+        while (wordCount > SENTENCE_LENGTH_BOUNDS[index])
+            index += 1;
+        return index;
+    }
+
+    @Override
+    public void onPredicted(int featureCount, int unknownFeatureCount) {
+        this.predictions.increment();
+        this.features.add(featureCount);
+        this.unknownFeatures.add(unknownFeatureCount);
+    }
+
+    @Override
+    public void onTagged(int wordCount, int dictionaryHitCount, long nanos) {
+        this.sentences.increment();
+        this.words.add(wordCount);
+        this.dictionaryHits.add(dictionaryHitCount);
+        this.tagLatencies[getSentenceLengthIndex(wordCount)].record(nanos);
+    }
+
+    @Override
+    public void onLoaded(Path path, long nanos) {
+        this.loadLatencies.record(nanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("sentences: %d\nwords: %d\ndictionary hits: %d\n"
+                                     + "predictions: %d\nfeatures: %d\nunknown features: %d\n",
+                                     this.sentences.sum(), this.words.sum(),
+                                     this.dictionaryHits.sum(), this.predictions.sum(),
+                                     this.features.sum(), this.unknownFeatures.sum()));
+        int lowerBound = 0;
+        for (int index = 0; index < SENTENCE_LENGTH_BOUNDS.length; index++) {
+            int upperBound = SENTENCE_LENGTH_BOUNDS[index];
+            LatencyHistogram histogram = this.tagLatencies[index];
+            if (histogram.getCount() > 0) {
+                String lengths = upperBound == Integer.MAX_VALUE
+                                 ? String.format("%d+", lowerBound + 1)
+                                 : String.format("%d-%d", lowerBound + 1, upperBound);
+                builder.append(String.format("tag latency (%s words): count %d, mean %.0fns, "
+                                             + "p50 %dns, p99 %dns, max %dns\n",
+                                             lengths, histogram.getCount(), histogram.getMean(),
+                                             histogram.getPercentile(50),
+                                             histogram.getPercentile(99),
+                                             histogram.getMax()));
+            }
+            lowerBound = upperBound;
+        }
+        if (this.loadLatencies.getCount() > 0) {
+            builder.append(String.format("load latency: count %d, mean %.0fns, max %dns\n",
+                                         this.loadLatencies.getCount(),
+                                         this.loadLatencies.getMean(),
+                                         this.loadLatencies.getMax()));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.turbolent.aptagger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tags sentences with a tagger into arrays given by the caller, reusing the buffers
+ * owned by the session: the normalized words, the feature ids, the label scores
+ * and the beam. Once the buffers have grown to the longest sentence, tagging
+ * doesn't allocate, unless non-ASCII words have to be lowercased.
+ * The tagger's cache of sentences is not used.
+ * <p>
+ * Sessions are not thread-safe: each thread should use its own session.
+ */
+public class TaggingSession {
+    private final Tagger tagger;
+    private final Tagger.Scratch scratch = new Tagger.Scratch();
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    TaggingSession(Tagger tagger) {
+        this.tagger = tagger;
+        String[] labels = tagger.perceptron.labels;
+        for (int labelId = 0; labelId < labels.length; labelId++)
+            this.labelIds.put(labels[labelId], labelId);
+    }
+
+    public Tagger getTagger() {
+        return this.tagger;
+    }
+
+    // Returns the label of the given label id, as filled in by tag(List, int[])
+    public String getLabel(int labelId) {
+        return this.tagger.perceptron.labels[labelId];
+    }
+
+    private static void checkLength(List<String> words, int length) {
+        if (length < words.size()) {
+            throw new IllegalArgumentException("Array too short for " + words.size()
+                                               + " words: " + length);
+        }
+    }
+
+    /**
+     * Tags the given words into the first elements of the given array,
+     * like {@link Tagger#tag(List)}.
+     */
+    public void tag(List<String> words, String[] tags) {
+        tag(words, null, tags);
+    }
+
+    /**
+     * Tags the given words into the first elements of the given array, and fills
+     * the given array, if any, with the confidence of each tag,
+     * like {@link Tagger#tag(List, float[])}.
+     */
+    public void tag(List<String> words, float[] confidences, String[] tags) {
+        checkLength(words, tags.length);
+        if (confidences != null)
+            checkLength(words, confidences.length);
+        this.tagger.tag(words, confidences, this.scratch, tags);
+    }
+
+    /**
+     * Tags the given words with a beam search into the first elements of the given array,
+     * like {@link Tagger#tag(List, int)}.
+     */
+    public void tag(List<String> words, int beamWidth, String[] tags) {
+        checkLength(words, tags.length);
+        if (beamWidth <= 1)
+            this.tagger.tag(words, null, this.scratch, tags);
+        else
+            this.tagger.tag(words, beamWidth, this.scratch, tags);
+    }
+
+    /**
+     * Tags the given words into the first elements of the given array, as the label ids
+     * of the tags, see {@link #getLabel(int)}. Tags from the dictionary which are not
+     * labels of the perceptron have the id -1.
+     */
+    public void tag(List<String> words, int[] labelIds) {
+        tag(words, 1, labelIds);
+    }
+
+    /**
+     * Tags the given words with a beam search into the first elements of the given array,
+     * as the label ids of the tags, like {@link #tag(List, int[])}.
+     */
+    public void tag(List<String> words, int beamWidth, int[] labelIds) {
+        checkLength(words, labelIds.length);
+        int wordCount = words.size();
+        String[] tags = this.scratch.getTags(wordCount);
+        tag(words, beamWidth, tags);
+        for (int index = 0; index < wordCount; index++) {
+            Integer labelId = this.labelIds.get(tags[index]);
+            labelIds[index] = labelId == null ? -1 : labelId;
+        }
+    }
+}
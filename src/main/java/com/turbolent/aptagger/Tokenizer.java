@@ -0,0 +1,46 @@
+package com.turbolent.aptagger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits character sequences into parts at a separator character, without regular
+ * expressions and without allocating. Parts are like those of
+ * {@link java.util.regex.Pattern#split(CharSequence)}: trailing empty parts are dropped,
+ * and a sequence without separators, even an empty one, is a single part.
+ */
+public class Tokenizer {
+
+    /**
+     * Returns the end of the last part in the given range of the characters,
+     * or -1 if there are no parts, i.e. the range only consists of separators.
+     */
+    public static int getPartsEnd(CharSequence chars, int start, int end, char separator) {
+        if (getPartEnd(chars, start, end, separator) == end)
+            return end;
+
+        int partsEnd = end;
+        while (partsEnd > start && chars.charAt(partsEnd - 1) == separator)
+            partsEnd -= 1;
+        return partsEnd == start ? -1 : partsEnd;
+    }
+
+    // Returns the end of the part starting at the given index, i.e. the next separator
+    public static int getPartEnd(CharSequence chars, int start, int end, char separator) {
+        int index = start;
+        while (index < end && chars.charAt(index) != separator)
+            index += 1;
+        return index;
+    }
+
+    public static List<String> split(String string, char separator) {
+        List<String> parts = new ArrayList<>();
+        int partsEnd = getPartsEnd(string, 0, string.length(), separator);
+        for (int start = 0; start <= partsEnd; ) {
+            int end = getPartEnd(string, start, partsEnd, separator);
+            parts.add(string.substring(start, end));
+            start = end + 1;
+        }
+        return parts;
+    }
+}
@@ -1,74 +1,164 @@
 package com.turbolent.aptagger;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
 
-public class TrainableAveragedPerceptron extends AveragedPerceptron {
+public class TrainableAveragedPerceptron {
     private int i = 0;
-    private final Map<String, Map<String, Float>> totals = new HashMap<>();
-    private final Map<String, Map<String, Integer>> timestamps = new HashMap<>();
+    public final String[] labels;
+    // weights of a shard are deltas on top of the read-only weights of its base
+    private final TrainableAveragedPerceptron base;
+    private final TrainingWeightStore store;
+    private final float[] scores;
 
-    public TrainableAveragedPerceptron(Map<String, Map<String, Float>> weights,
-                                       Set<String> labels)
+    public TrainableAveragedPerceptron(String[] labels) {
+        this(labels, null, new HeapTrainingWeightStore(), 0);
+    }
+
+    // Starts training with the given empty store
+    public TrainableAveragedPerceptron(String[] labels, TrainingWeightStore store) {
+        this(labels, null, store, 0);
+    }
+
+    // Resumes training from the given weights, after the given number of updates
+    public TrainableAveragedPerceptron(String[] labels, TrainingWeightStore store,
+                                       int updateCount)
     {
-        super(weights, labels);
+        this(labels, null, store, updateCount);
     }
 
-    private static <T> Map<String, T> getOrInitialize
-        (Map<String, Map<String, T>> featureMap, String feature)
+    private TrainableAveragedPerceptron(String[] labels, TrainableAveragedPerceptron base,
+                                        TrainingWeightStore store, int updateCount)
     {
-        return featureMap.computeIfAbsent(feature, missingFeature -> new HashMap<>());
+        this.labels = labels;
+        this.base = base;
+        this.store = store;
+        this.i = updateCount;
+        this.scores = new float[labels.length];
+    }
+
+    public TrainableAveragedPerceptron newShard() {
+        return new TrainableAveragedPerceptron(this.labels, this, this.store.newStore(), 0);
+    }
+
+    public TrainingWeightStore getStore() {
+        return this.store;
+    }
+
+    // Returns the number of updates, i.e. of predictions trained on
+    public int getUpdateCount() {
+        return this.i;
     }
 
-    public void update(String truth, String guess, Features features) {
+    private void addScores(Features features, float[] scores) {
+        for (int featureIndex = 0; featureIndex < features.size; featureIndex++)
+            this.store.addScores(features.ids[featureIndex], scores);
+    }
+
+    public int predict(Features features) {
+        float[] scores = this.scores;
+        Arrays.fill(scores, 0.f);
+
+        if (this.base != null)
+            this.base.addScores(features, scores);
+        addScores(features, scores);
+
+        int best = 0;
+        for (int labelId = 1; labelId < scores.length; labelId++) {
+            if (scores[labelId] > scores[best])
+                best = labelId;
+        }
+        return best;
+    }
+
+    public void update(int truth, int guess, Features features) {
         this.i += 1;
 
-        if (guess.equals(truth))
+        if (guess == truth)
             return;
 
-        for (String feature : features.keySet()) {
-            Map<String, Float> weights = getOrInitialize(this.weights, feature);
-            updateFeature(truth, feature, weights.getOrDefault(truth, 0.f), 1.f);
-            updateFeature(guess, feature, weights.getOrDefault(guess, 0.f), -1.f);
+        for (int featureIndex = 0; featureIndex < features.size; featureIndex++) {
+            long feature = features.ids[featureIndex];
+            updateFeature(this.store.getOrAddEntry(feature, truth), 1.f);
+            updateFeature(this.store.getOrAddEntry(feature, guess), -1.f);
         }
     }
 
-    private void updateFeature(String label, String feature, float weight, float v) {
+    private void updateFeature(int entry, float v) {
+        TrainingWeightStore store = this.store;
         int i = this.i;
-        getOrInitialize(this.totals, feature)
-            .merge(label, 0.f,
-                   (current, initial) -> {
-                       int timestamp = this.timestamps.get(feature).get(label);
-                       return current + (i - timestamp) * weight;
-                   });
-        getOrInitialize(this.timestamps, feature).put(label, i);
-        this.weights.get(feature).put(label, weight + v);
+        float weight = store.getWeight(entry);
+        store.setTotal(entry, store.getTotal(entry) + (i - store.getTimestamp(entry)) * weight);
+        store.setTimestamp(entry, i);
+        store.setWeight(entry, weight + v);
     }
 
-    public void averageWeights() {
-        int i = this.i;
-        for (Map.Entry<String, Map<String, Float>> featureEntry : this.weights.entrySet()) {
-            String feature = featureEntry.getKey();
-            Map<String, Float> weights = featureEntry.getValue();
+    // Iterative parameter mixing: moves the weights by the mean of the shards' deltas,
+    // and adds the weights the shards went through to the totals used for averaging
+    public void mix(List<TrainableAveragedPerceptron> shards) {
+        for (TrainableAveragedPerceptron shard : shards)
+            this.i += shard.i;
 
-            Map<String, Float> newWeights = new HashMap<>();
+        float mixingWeight = 1.f / shards.size();
+        for (TrainableAveragedPerceptron shard : shards) {
+            TrainingWeightStore shardStore = shard.store;
+            shardStore.forEachFeature((feature, firstEntry) -> {
+                for (int shardEntry = firstEntry;
+                     shardEntry >= 0;
+                     shardEntry = shardStore.getNext(shardEntry))
+                {
+                    float delta = shardStore.getWeight(shardEntry);
+                    float shardTotal = shardStore.getTotal(shardEntry)
+                                       + (shard.i - shardStore.getTimestamp(shardEntry)) * delta;
 
-            Map<String, Integer> timestamps = this.timestamps.get(feature);
-            Map<String, Float> totals = this.totals.get(feature);
+                    int entry = this.store.getOrAddEntry(feature,
+                                                         shardStore.getLabel(shardEntry));
+                    updateFeature(entry, delta * mixingWeight);
+                    this.store.setTotal(entry, this.store.getTotal(entry) + shardTotal);
+                }
+            });
+        }
+    }
 
-            for (Map.Entry<String, Float> weightEntry : weights.entrySet()) {
-                String label = weightEntry.getKey();
-                float weight = weightEntry.getValue();
+    private boolean getAveragedWeights(int firstEntry, float[] row) {
+        TrainingWeightStore store = this.store;
+        int i = this.i;
+        boolean empty = true;
+        for (int entry = firstEntry; entry >= 0; entry = store.getNext(entry)) {
+            float weight = store.getWeight(entry);
+            float total = store.getTotal(entry) + (i - store.getTimestamp(entry)) * weight;
+            float averaged = Math.round((total / (float) i) * 1000) / 1000.f;
+            if (averaged > 0.f) {
+                row[store.getLabel(entry)] = averaged;
+                empty = false;
+            }
+        }
+        return !empty;
+    }
 
-                int timestamp = timestamps.get(label);
-                float total = totals.get(label) + (i - timestamp) * weight;
-                float averaged = Math.round((total / (float) i) * 1000) / 1000.f;
-                if (averaged > 0.f)
-                    newWeights.put(label, averaged);
+    public AveragedPerceptron averageWeights() {
+        int labelCount = this.labels.length;
+        float[] row = new float[labelCount];
+
+        int[] featureCount = {0};
+        this.store.forEachFeature((feature, firstEntry) -> {
+            Arrays.fill(row, 0.f);
+            if (getAveragedWeights(firstEntry, row))
+                featureCount[0] += 1;
+        });
+
+        long[] features = new long[featureCount[0]];
+        float[] weights = new float[featureCount[0] * labelCount];
+        int[] featureIndex = {0};
+        this.store.forEachFeature((feature, firstEntry) -> {
+            int offset = featureIndex[0] * labelCount;
+            Arrays.fill(row, 0.f);
+            if (getAveragedWeights(firstEntry, row)) {
+                features[featureIndex[0]++] = feature;
+                System.arraycopy(row, 0, weights, offset, labelCount);
             }
+        });
 
-            this.weights.put(feature, newWeights);
-        }
+        return new AveragedPerceptron(this.labels, features, weights);
     }
 }
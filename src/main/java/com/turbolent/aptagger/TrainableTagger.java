@@ -1,8 +1,27 @@
 package com.turbolent.aptagger;
 
+import org.msgpack.MessagePack;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.FloatArrayTemplate;
+import org.msgpack.template.IntegerArrayTemplate;
+import org.msgpack.template.LongArrayTemplate;
+import org.msgpack.type.ValueType;
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class TrainableTagger extends Tagger {
+public class TrainableTagger {
     public interface TrainingListener {
         void onIterationStart(int iterationIndex, int iterationCount);
 
@@ -13,125 +32,593 @@ public class TrainableTagger extends Tagger {
         void onAveraging();
     }
 
+    protected static final String CHECKPOINT_MARKER = "aptagger-checkpoint";
+    // the first version hashed the feature ids differently, see Features,
+    // so its checkpoints can't be resumed
+    protected static final int CHECKPOINT_FORMAT_VERSION = 2;
+    // blocks of extracted sentences waiting for training
+    private static final int EXTRACTION_QUEUE_CAPACITY = 4;
+    // the seed of training which isn't given one, so it is reproducible
+    public static final long DEFAULT_SEED = 42;
+
+    protected final Map<String, String> tags;
+    protected final Map<String, Integer> labelIds = new HashMap<>();
     protected final TrainableAveragedPerceptron trainablePerceptron;
 
-    private TrainableTagger(Map<String, Map<String, Float>> weights,
-                            Map<String, String> tags, Set<String> labels)
+    private TrainableTagger(Map<String, String> tags, Set<String> labels,
+                            TrainingWeightStore store)
     {
-        super(tags, new TrainableAveragedPerceptron(weights, labels));
-        this.trainablePerceptron = (TrainableAveragedPerceptron)this.perceptron;
+        this(tags, new TrainableAveragedPerceptron(labels.toArray(new String[labels.size()]),
+                                                   store));
     }
 
-    private static Map<String, String> getTags(Map<String, Map<String, Integer>> counts,
-                                               int frequencyThreshold,
-                                               float ambiguityThreshold)
+    private TrainableTagger(Map<String, String> tags,
+                            TrainableAveragedPerceptron trainablePerceptron)
     {
-        Map<String, String> tags = new HashMap<>();
+        this.tags = tags;
+        this.trainablePerceptron = trainablePerceptron;
+        String[] labels = trainablePerceptron.labels;
+        for (int labelId = 0; labelId < labels.length; labelId++)
+            this.labelIds.put(labels[labelId], labelId);
+    }
 
-        for (Map.Entry<String, Map<String, Integer>> countEntry : counts.entrySet()) {
-            String word = countEntry.getKey();
-            Map<String, Integer> tagCounts = countEntry.getValue();
+    /**
+     * Returns an untrained tagger for the given sentences, with the tag dictionary
+     * and the labels found in them.
+     */
+    public static TrainableTagger getInitialTagger(List<TaggedSentence> sentences,
+                                                   int frequencyThreshold,
+                                                   float ambiguityThreshold)
+    {
+        return getInitialTagger(sentences, frequencyThreshold, ambiguityThreshold, 1);
+    }
 
-            Map.Entry<String, Integer> maxEntry =
-                Collections.max(tagCounts.entrySet(),
-                                (entry1, entry2) ->
-                                    Integer.compare(entry1.getValue(),
-                                                    entry2.getValue()));
+    /**
+     * Returns an untrained tagger for the given sentences, like {@link #getInitialTagger},
+     * counting the tags of contiguous shards of the sentences in the given number
+     * of threads.
+     */
+    public static TrainableTagger getInitialTagger(List<TaggedSentence> sentences,
+                                                   int frequencyThreshold,
+                                                   float ambiguityThreshold,
+                                                   int threadCount)
+    {
+        return getInitialTagger(sentences, frequencyThreshold, ambiguityThreshold,
+                                threadCount, new HeapTrainingWeightStore());
+    }
 
-            String tag = maxEntry.getKey();
-            int mode = maxEntry.getValue();
-            int n = tagCounts.values().stream().mapToInt(Integer::intValue).sum();
+    /**
+     * Returns an untrained tagger for the given sentences, like {@link #getInitialTagger},
+     * which trains into the given empty store, e.g. a {@link DirectTrainingWeightStore}
+     * to keep the training state outside of the heap.
+     */
+    public static TrainableTagger getInitialTagger(List<TaggedSentence> sentences,
+                                                   int frequencyThreshold,
+                                                   float ambiguityThreshold,
+                                                   int threadCount,
+                                                   TrainingWeightStore store)
+    {
+        TagCounts counts = getTagCounts(sentences, threadCount);
+        Map<String, String> tags = counts.getDictionary(frequencyThreshold, ambiguityThreshold);
+        return new TrainableTagger(tags, new HashSet<>(counts.getTags()), store);
+    }
 
-            if (n > frequencyThreshold
-                && (((float)mode) / n) >= ambiguityThreshold)
-            {
-                tags.put(word, tag);
+    private static TagCounts getTagCounts(List<TaggedSentence> sentences, int threadCount) {
+        int sentenceCount = sentences.size();
+        if (threadCount <= 1 || sentenceCount < threadCount) {
+            TagCounts counts = new TagCounts();
+            for (TaggedSentence sentence : sentences)
+                counts.add(sentence);
+            return counts;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<CompletableFuture<TagCounts>> shardCounts = new ArrayList<>();
+            for (int shardIndex = 0; shardIndex < threadCount; shardIndex++) {
+                List<TaggedSentence> shardSentences =
+                    sentences.subList((int) ((long) sentenceCount * shardIndex / threadCount),
+                                      (int) ((long) sentenceCount * (shardIndex + 1)
+                                             / threadCount));
+                shardCounts.add(CompletableFuture.supplyAsync(() -> {
+                    TagCounts counts = new TagCounts();
+                    for (TaggedSentence sentence : shardSentences)
+                        counts.add(sentence);
+                    return counts;
+                }, executor));
             }
+
+            // merging in shard order keeps the tags in the order they occur
+            TagCounts counts = shardCounts.get(0).join();
+            for (int shardIndex = 1; shardIndex < threadCount; shardIndex++)
+                counts.addAll(shardCounts.get(shardIndex).join());
+            return counts;
+        } finally {
+            executor.shutdown();
         }
-        return tags;
     }
 
-    private static TrainableTagger getInitialTagger(List<TaggedSentence> sentences,
-                                                    int frequencyThreshold,
-                                                    float ambiguityThreshold)
+    private int trainSentence(TaggedSentence sentence, TrainableAveragedPerceptron perceptron,
+                              Features features, Context context)
     {
-        HashSet<String> labels = new HashSet<>();
-        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        context.reset(sentence.words);
+        int offset = Tagger.START.length;
 
-        for (TaggedSentence sentence : sentences) {
-            for (int index = 0; index < sentence.words.size(); index++) {
-                String word = sentence.words.get(index);
-                String tag = sentence.tags.get(index);
-                Map<String, Integer> wordCounts =
-                    counts.computeIfAbsent(word, key -> new HashMap<>());
-                wordCounts.merge(tag, 1, (current, initial) -> current + 1);
-                labels.add(tag);
+        int correct = 0;
+        String prev = Tagger.START[0];
+        String prev2 = Tagger.START[1];
+        for (int index = 0; index < sentence.words.size(); index++) {
+            String word = sentence.words.get(index);
+            String tag = sentence.tags.get(index);
+
+            String guess = this.tags.get(word);
+            if (guess == null) {
+                features.extract(offset + index, word, context, prev, prev2);
+                int guessId = perceptron.predict(features);
+                perceptron.update(this.labelIds.get(tag), guessId, features);
+                guess = perceptron.labels[guessId];
             }
+            prev2 = prev;
+            prev = guess;
+
+            if (guess.equals(tag))
+                correct += 1;
         }
+        return correct;
+    }
 
-        HashMap<String, Map<String, Float>> weights = new HashMap<>();
-        Map<String, String> tags = getTags(counts, frequencyThreshold, ambiguityThreshold);
+    private void trainIteration(List<TaggedSentence> sentences, Features features,
+                                Context context, TrainingListener listener)
+    {
+        int correct = 0;
+        int total = 0;
+        int sentenceCount = sentences.size();
+        for (int sentenceIndex = 0; sentenceIndex < sentenceCount; sentenceIndex++) {
+            TaggedSentence sentence = sentences.get(sentenceIndex);
+            correct += trainSentence(sentence, this.trainablePerceptron, features, context);
+            total += sentence.words.size();
 
-        return new TrainableTagger(weights, tags, labels);
+            if (listener != null)
+                listener.onTrainedSentence(sentenceIndex, sentenceCount, correct, total);
+        }
     }
 
-    public static Tagger getTrained(List<TaggedSentence> sentences, int iterations,
-                                    int frequencyThreshold, float ambiguityThreshold,
-                                    TrainingListener listener)
+    // Each shard trains on a contiguous part of the sentences, starting from the current
+    // weights. The shards' weights are mixed after the iteration
+    private void trainShardedIteration(List<TaggedSentence> sentences, int shardCount,
+                                       ExecutorService executor, TrainingListener listener)
     {
-        TrainableTagger tagger =
-            getInitialTagger(sentences, frequencyThreshold, ambiguityThreshold);
-        Map<String, String> tags = tagger.tags;
+        int sentenceCount = sentences.size();
+        List<TrainableAveragedPerceptron> shards = new ArrayList<>();
+        List<CompletableFuture<Integer>> shardCorrects = new ArrayList<>();
+        for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+            TrainableAveragedPerceptron shard = this.trainablePerceptron.newShard();
+            List<TaggedSentence> shardSentences =
+                sentences.subList((int) ((long) sentenceCount * shardIndex / shardCount),
+                                  (int) ((long) sentenceCount * (shardIndex + 1) / shardCount));
+            shards.add(shard);
+            shardCorrects.add(CompletableFuture.supplyAsync(() -> {
+                Features features = new Features();
+                Context context = new Context();
+                int correct = 0;
+                for (TaggedSentence sentence : shardSentences)
+                    correct += trainSentence(sentence, shard, features, context);
+                return correct;
+            }, executor));
+        }
 
-        int offset = START.length;
-        for (int iterationIndex = 0; iterationIndex < iterations; iterationIndex++) {
-            if (listener != null)
-                listener.onIterationStart(iterationIndex, iterations);
+        int correct = 0;
+        for (CompletableFuture<Integer> shardCorrect : shardCorrects)
+            correct += shardCorrect.join();
+
+        this.trainablePerceptron.mix(shards);
+
+        if (listener != null) {
+            int total = 0;
+            for (TaggedSentence sentence : sentences)
+                total += sentence.words.size();
+            listener.onTrainedSentence(sentenceCount - 1, sentenceCount, correct, total);
+        }
+    }
+
+    private int trainCachedSentence(FeatureCache cache, int sentence,
+                                    TrainableAveragedPerceptron perceptron, Features features)
+    {
+        FeatureCache.Block block = cache.getBlock(sentence);
+        int blockSentence = sentence % FeatureCache.BLOCK_SIZE;
+        int end = block.tokenStarts[blockSentence + 1];
+        int predicted = block.predictedStarts[blockSentence];
 
+        int correct = 0;
+        int prev = cache.startTagId;
+        int prev2 = cache.start2TagId;
+        for (int token = block.tokenStarts[blockSentence]; token < end; token++) {
+            int tag = block.labels[token];
+
+            int guess = block.dictionaryLabels[token];
+            if (guess < 0) {
+                cache.setFeatures(features, block, predicted++, prev, prev2);
+                guess = perceptron.predict(features);
+                perceptron.update(tag, guess, features);
+            }
+            prev2 = prev;
+            prev = guess;
+
+            if (guess == tag)
+                correct += 1;
+        }
+        return correct;
+    }
+
+    private static int getTokenCount(FeatureCache cache, int sentence) {
+        FeatureCache.Block block = cache.getBlock(sentence);
+        int blockSentence = sentence % FeatureCache.BLOCK_SIZE;
+        return block.tokenStarts[blockSentence + 1] - block.tokenStarts[blockSentence];
+    }
+
+    private FeatureCache.Block extractBlock(List<TaggedSentence> sentences, int start,
+                                            Features features, Context context)
+    {
+        FeatureCache.Block block = new FeatureCache.Block();
+        int end = Math.min(start + FeatureCache.BLOCK_SIZE, sentences.size());
+        for (int sentenceIndex = start; sentenceIndex < end; sentenceIndex++)
+            block.add(sentences.get(sentenceIndex), this.tags, this.labelIds, features, context);
+        block.trim();
+        return block;
+    }
+
+    // Trains on the sentences while another thread extracts their static features
+    // into the returned cache, one block ahead of the training
+    private FeatureCache trainCachingIteration(List<TaggedSentence> sentences,
+                                               TrainingListener listener)
+    {
+        FeatureCache cache = new FeatureCache(this.trainablePerceptron.labels);
+        BlockingQueue<FeatureCache.Block> blocks =
+            new ArrayBlockingQueue<>(EXTRACTION_QUEUE_CAPACITY);
+        FeatureCache.Block end = new FeatureCache.Block();
+
+        ExecutorService extractor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> extraction = CompletableFuture.runAsync(() -> {
+                Features features = new Features();
+                Context context = new Context();
+                try {
+                    int sentenceCount = sentences.size();
+                    for (int start = 0; start < sentenceCount; start += FeatureCache.BLOCK_SIZE)
+                        blocks.put(extractBlock(sentences, start, features, context));
+                    blocks.put(end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                }
+            }, extractor);
+
+            Features features = new Features();
             int correct = 0;
             int total = 0;
             int sentenceCount = sentences.size();
-            for (int sentenceIndex = 0; sentenceIndex < sentenceCount; sentenceIndex++) {
-                TaggedSentence sentence = sentences.get(sentenceIndex);
-                List<String> context = getContext(sentence.words);
-
-                String prev = START[0];
-                String prev2 = START[1];
-                for (int index = 0; index < sentence.words.size(); index++) {
-                    String word = sentence.words.get(index);
-                    String tag = sentence.tags.get(index);
-
-                    String guess = tags.get(word);
-                    if (guess == null) {
-                        Features features =
-                            Features.getFeatures(offset + index, word, context, prev, prev2);
-                        guess = tagger.trainablePerceptron.predict(features);
-                        tagger.trainablePerceptron.update(tag, guess, features);
-                    }
-                    prev2 = prev;
-                    prev = guess;
+            try {
+                FeatureCache.Block block;
+                while ((block = blocks.take()) != end) {
+                    int first = cache.size();
+                    cache.add(block);
+                    for (int sentence = first; sentence < cache.size(); sentence++) {
+                        correct += trainCachedSentence(cache, sentence,
+                                                       this.trainablePerceptron, features);
+                        total += getTokenCount(cache, sentence);
 
-                    if (guess.equals(tag))
-                        correct += 1;
-                    total += 1;
+                        if (listener != null)
+                            listener.onTrainedSentence(sentence, sentenceCount, correct, total);
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            extraction.join();
+            return cache;
+        } finally {
+            extractor.shutdownNow();
+        }
+    }
 
-                if (listener != null) {
-                    listener.onTrainedSentence(sentenceIndex, sentenceCount,
-                                               correct, total);
+    // Extracts the static features of the sentences, in blocks which are split
+    // into contiguous shards for the threads of the executor
+    private FeatureCache extractFeatures(List<TaggedSentence> sentences, int shardCount,
+                                         ExecutorService executor)
+    {
+        int blockSize = FeatureCache.BLOCK_SIZE;
+        int blockCount = (sentences.size() + blockSize - 1) / blockSize;
+        List<CompletableFuture<List<FeatureCache.Block>>> shardBlocks = new ArrayList<>();
+        for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+            int firstBlock = (int) ((long) blockCount * shardIndex / shardCount);
+            int lastBlock = (int) ((long) blockCount * (shardIndex + 1) / shardCount);
+            shardBlocks.add(CompletableFuture.supplyAsync(() -> {
+                Features features = new Features();
+                Context context = new Context();
+                List<FeatureCache.Block> blocks = new ArrayList<>();
+                for (int blockIndex = firstBlock; blockIndex < lastBlock; blockIndex++) {
+                    blocks.add(extractBlock(sentences, blockIndex * blockSize,
+                                            features, context));
                 }
-            }
+                return blocks;
+            }, executor));
+        }
+
+        FeatureCache cache = new FeatureCache(this.trainablePerceptron.labels);
+        for (CompletableFuture<List<FeatureCache.Block>> blocks : shardBlocks) {
+            for (FeatureCache.Block block : blocks.join())
+                cache.add(block);
+        }
+        return cache;
+    }
 
-            Collections.shuffle(sentences);
+    private void trainCachedIteration(FeatureCache cache, Features features,
+                                      TrainingListener listener)
+    {
+        int correct = 0;
+        int total = 0;
+        int sentenceCount = cache.size();
+        for (int position = 0; position < sentenceCount; position++) {
+            int sentence = cache.getSentence(position);
+            correct += trainCachedSentence(cache, sentence, this.trainablePerceptron, features);
+            total += getTokenCount(cache, sentence);
 
             if (listener != null)
-                listener.onIterationEnd(iterationIndex, iterations);
+                listener.onTrainedSentence(position, sentenceCount, correct, total);
+        }
+    }
+
+    // Like trainShardedIteration, on the cached sentences
+    private void trainCachedShardedIteration(FeatureCache cache, int shardCount,
+                                             ExecutorService executor,
+                                             TrainingListener listener)
+    {
+        int sentenceCount = cache.size();
+        List<TrainableAveragedPerceptron> shards = new ArrayList<>();
+        List<CompletableFuture<Integer>> shardCorrects = new ArrayList<>();
+        for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+            TrainableAveragedPerceptron shard = this.trainablePerceptron.newShard();
+            int start = (int) ((long) sentenceCount * shardIndex / shardCount);
+            int end = (int) ((long) sentenceCount * (shardIndex + 1) / shardCount);
+            shards.add(shard);
+            shardCorrects.add(CompletableFuture.supplyAsync(() -> {
+                Features features = new Features();
+                int correct = 0;
+                for (int position = start; position < end; position++) {
+                    correct += trainCachedSentence(cache, cache.getSentence(position),
+                                                   shard, features);
+                }
+                return correct;
+            }, executor));
         }
 
+        int correct = 0;
+        for (CompletableFuture<Integer> shardCorrect : shardCorrects)
+            correct += shardCorrect.join();
+
+        this.trainablePerceptron.mix(shards);
+
+        if (listener != null) {
+            int total = 0;
+            for (int sentence = 0; sentence < sentenceCount; sentence++)
+                total += getTokenCount(cache, sentence);
+            listener.onTrainedSentence(sentenceCount - 1, sentenceCount, correct, total);
+        }
+    }
+
+    // Trains a tagger on one thread, with the default seed, see DEFAULT_SEED
+    public static Tagger getTrained(List<TaggedSentence> sentences, int iterations,
+                                    int frequencyThreshold, float ambiguityThreshold,
+                                    TrainingListener listener)
+    {
+        return getTrained(sentences, iterations, frequencyThreshold, ambiguityThreshold,
+                          1, DEFAULT_SEED, listener);
+    }
+
+    /**
+     * Trains a tagger on the given sentences, which are shuffled after each iteration.
+     * <p>
+     * With more than one thread, training uses iterative parameter mixing: each thread
+     * trains a shard of the sentences, and the shards' weights are averaged after each
+     * iteration. Training with the same sentences, thread count and seed is reproducible.
+     */
+    public static Tagger getTrained(List<TaggedSentence> sentences, int iterations,
+                                    int frequencyThreshold, float ambiguityThreshold,
+                                    int threadCount, long seed, TrainingListener listener)
+    {
+        return getTrained(sentences, iterations, frequencyThreshold, ambiguityThreshold,
+                          threadCount, seed, false, listener);
+    }
+
+    /**
+     * Trains a tagger on the given sentences, like {@link #getTrained}. If features
+     * are cached, the static features of the sentences are only extracted once,
+     * see {@link #train(List, int, int, long, boolean, TrainingListener)}.
+     */
+    public static Tagger getTrained(List<TaggedSentence> sentences, int iterations,
+                                    int frequencyThreshold, float ambiguityThreshold,
+                                    int threadCount, long seed, boolean cacheFeatures,
+                                    TrainingListener listener)
+    {
+        TrainableTagger tagger =
+            getInitialTagger(sentences, frequencyThreshold, ambiguityThreshold, threadCount);
+        tagger.train(sentences, iterations, threadCount, seed, cacheFeatures, listener);
+
         if (listener != null)
             listener.onAveraging();
-        tagger.trainablePerceptron.averageWeights();
+        return tagger.getTagger();
+    }
+
+    /**
+     * Continues training on the given sentences, which are shuffled after each iteration,
+     * like {@link #getTrained}. The tag dictionary and the labels are kept, so the
+     * sentences must only contain known tags.
+     */
+    public void train(List<TaggedSentence> sentences, int iterations, int threadCount, long seed,
+                      TrainingListener listener)
+    {
+        train(sentences, iterations, threadCount, seed, false, listener);
+    }
+
+    /**
+     * Continues training on the given sentences, like
+     * {@link #train(List, int, int, long, TrainingListener)}.
+     * <p>
+     * If features are cached, the static features of the sentences, i.e. the ones which
+     * don't depend on the previous tags, are extracted once and kept in memory, and later
+     * iterations only compute the features of the previous tags. With one thread,
+     * the features are extracted by another thread during the first iteration,
+     * otherwise by the training threads before it. The cached sentences are shuffled
+     * instead of the given ones. Training produces the same weights as without the cache.
+     */
+    public void train(List<TaggedSentence> sentences, int iterations, int threadCount, long seed,
+                      boolean cacheFeatures, TrainingListener listener)
+    {
+        for (TaggedSentence sentence : sentences) {
+            for (String tag : sentence.tags) {
+                if (!this.labelIds.containsKey(tag)) {
+                    String message = String.format("Unknown tag \"%s\"", tag);
+                    throw new IllegalArgumentException(message);
+                }
+            }
+        }
+
+        Random random = new Random(seed);
+
+        ExecutorService executor =
+            threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        try {
+            Features features = new Features();
+            Context context = new Context();
+            FeatureCache cache = null;
+            for (int iterationIndex = 0; iterationIndex < iterations; iterationIndex++) {
+                if (listener != null)
+                    listener.onIterationStart(iterationIndex, iterations);
+
+                if (cacheFeatures && cache == null && executor != null)
+                    cache = extractFeatures(sentences, threadCount, executor);
+
+                if (!cacheFeatures) {
+                    if (executor == null)
+                        trainIteration(sentences, features, context, listener);
+                    else
+                        trainShardedIteration(sentences, threadCount, executor, listener);
+                } else if (cache == null) {
+                    cache = trainCachingIteration(sentences, listener);
+                } else if (executor == null) {
+                    trainCachedIteration(cache, features, listener);
+                } else {
+                    trainCachedShardedIteration(cache, threadCount, executor, listener);
+                }
+
+                if (cache != null)
+                    cache.shuffle(random);
+                else if (sentences instanceof Corpus)
+                    ((Corpus) sentences).shuffle(random);
+                else
+                    Collections.shuffle(sentences, random);
+
+                if (listener != null)
+                    listener.onIterationEnd(iterationIndex, iterations);
+            }
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+    }
+
+    // Returns a tagger with the weights averaged over all updates so far
+    public Tagger getTagger() {
+        return new Tagger(this.tags, this.trainablePerceptron.averageWeights());
+    }
+
+    /**
+     * Saves the training state, i.e. the tag dictionary, the labels, and the weights
+     * with their averaging state, so training can be resumed with {@link #loadCheckpoint}.
+     */
+    public void saveCheckpoint(Path outputPath) throws IOException {
+        TrainableAveragedPerceptron perceptron = this.trainablePerceptron;
+        TrainingWeightStore store = perceptron.getStore();
+
+        int entryCount = store.getEntryCount();
+        long[] features = new long[entryCount];
+        int[] labels = new int[entryCount];
+        float[] weights = new float[entryCount];
+        float[] totals = new float[entryCount];
+        int[] timestamps = new int[entryCount];
+        int[] index = {0};
+        store.forEachFeature((feature, firstEntry) -> {
+            for (int entry = firstEntry; entry >= 0; entry = store.getNext(entry)) {
+                int entryIndex = index[0]++;
+                features[entryIndex] = feature;
+                labels[entryIndex] = store.getLabel(entry);
+                weights[entryIndex] = store.getWeight(entry);
+                totals[entryIndex] = store.getTotal(entry);
+                timestamps[entryIndex] = store.getTimestamp(entry);
+            }
+        });
 
-        return tagger;
+        File outputFile = outputPath.toFile();
+
+        try (FileOutputStream fileStream = new FileOutputStream(outputFile);
+             Packer packer = new MessagePack().createPacker(fileStream))
+        {
+            packer.write(CHECKPOINT_MARKER);
+            packer.write(CHECKPOINT_FORMAT_VERSION);
+            packer.write(this.tags);
+            packer.write(Arrays.asList(perceptron.labels));
+            packer.write(perceptron.getUpdateCount());
+            packer.write(features);
+            packer.write(labels);
+            packer.write(weights);
+            packer.write(totals);
+            packer.write(timestamps);
+        }
+    }
+
+    public static TrainableTagger loadCheckpoint(Path inputPath) throws IOException {
+        return loadCheckpoint(inputPath, new HeapTrainingWeightStore());
+    }
+
+    // Loads the training state saved by saveCheckpoint into the given empty store
+    public static TrainableTagger loadCheckpoint(Path inputPath, TrainingWeightStore store)
+        throws IOException
+    {
+        File inputFile = inputPath.toFile();
+
+        try (FileInputStream fileStream = new FileInputStream(inputFile);
+             Unpacker unpacker = new MessagePack().createUnpacker(fileStream))
+        {
+            if (unpacker.getNextType() != ValueType.RAW
+                || !unpacker.readString().equals(CHECKPOINT_MARKER))
+            {
+                throw new IOException("Not a training checkpoint: " + inputPath);
+            }
+
+            int version = unpacker.readInt();
+            Tagger.checkVersion("checkpoint format", version, CHECKPOINT_FORMAT_VERSION);
+
+            Map<String, String> tags = unpacker.read(Tagger.TAGS_TEMPLATE);
+            List<String> labelList = unpacker.read(Tagger.LABEL_LIST_TEMPLATE);
+            int updateCount = unpacker.readInt();
+            long[] features = unpacker.read(LongArrayTemplate.getInstance());
+            int[] labels = unpacker.read(IntegerArrayTemplate.getInstance());
+            float[] weights = unpacker.read(FloatArrayTemplate.getInstance());
+            float[] totals = unpacker.read(FloatArrayTemplate.getInstance());
+            int[] timestamps = unpacker.read(IntegerArrayTemplate.getInstance());
+
+            for (int entryIndex = 0; entryIndex < features.length; entryIndex++) {
+                int entry = store.getOrAddEntry(features[entryIndex], labels[entryIndex]);
+                store.setWeight(entry, weights[entryIndex]);
+                store.setTotal(entry, totals[entryIndex]);
+                store.setTimestamp(entry, timestamps[entryIndex]);
+            }
+
+            String[] labelArray = labelList.toArray(new String[labelList.size()]);
+            return new TrainableTagger(tags,
+                                       new TrainableAveragedPerceptron(labelArray, store,
+                                                                       updateCount));
+        }
     }
 }
@@ -0,0 +1,54 @@
+package com.turbolent.aptagger;
+
+/**
+ * Training state of the (feature, label) weights: each feature maps to a chain
+ * of entries, and each entry holds a label id, the current weight, the accumulated total
+ * for averaging and the timestamp of the last update. Entries are identified by ints,
+ * and a missing feature or entry by -1.
+ */
+public interface TrainingWeightStore {
+    interface FeatureVisitor {
+        void visit(long feature, int firstEntry);
+    }
+
+    // Returns an empty store of the same kind, e.g. for the shards of parallel training
+    TrainingWeightStore newStore();
+
+    int getFeatureCount();
+
+    int getEntryCount();
+
+    int getFirstEntry(long feature);
+
+    default int getEntry(long feature, int label) {
+        int entry = getFirstEntry(feature);
+        while (entry >= 0 && getLabel(entry) != label)
+            entry = getNext(entry);
+        return entry;
+    }
+
+    int getOrAddEntry(long feature, int label);
+
+    void forEachFeature(FeatureVisitor visitor);
+
+    default void addScores(long feature, float[] scores) {
+        for (int entry = getFirstEntry(feature); entry >= 0; entry = getNext(entry))
+            scores[getLabel(entry)] += getWeight(entry);
+    }
+
+    int getLabel(int entry);
+
+    int getNext(int entry);
+
+    float getWeight(int entry);
+
+    void setWeight(int entry, float weight);
+
+    float getTotal(int entry);
+
+    void setTotal(int entry, float total);
+
+    int getTimestamp(int entry);
+
+    void setTimestamp(int entry, int timestamp);
+}
@@ -0,0 +1,23 @@
+package com.turbolent.aptagger;
+
+public interface WeightStore {
+    int getLabelCount();
+
+    int getFeatureCount();
+
+    Quantization getQuantization();
+
+    long getFeature(int row);
+
+    int findRow(long feature);
+
+    float getWeight(int row, int labelId);
+
+    void addRow(int row, float[] scores);
+
+    // Adds the row to the scores, and returns the first label with the highest score
+    default int addRowAndGetBest(int row, float[] scores) {
+        addRow(row, scores);
+        return ScoringKernel.getBest(scores, getLabelCount());
+    }
+}
@@ -0,0 +1,75 @@
+package com.turbolent.aptagger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares the normalization of the words in a context to the regular expression it replaced
+public class ContextTest {
+    private static final Pattern NUMBER = Pattern.compile("[0-9][0-9,.]*");
+    private static final String CHARS = "0123456789,.aAzZI\u00dc\u00e9\u0130-";
+
+    private static String normalize(String word) {
+        if (NUMBER.matcher(word).matches())
+            return "!NUMBER";
+        return word.toLowerCase();
+    }
+
+    private static List<List<String>> getSentences() {
+        Random random = new Random(42);
+        List<List<String>> sentences = new ArrayList<>();
+        for (int sentenceIndex = 0; sentenceIndex < 1000; sentenceIndex++) {
+            int length = 1 + random.nextInt(10);
+            List<String> words = new ArrayList<>(length);
+            for (int index = 0; index < length; index++) {
+                StringBuilder builder = new StringBuilder();
+                int wordLength = 1 + random.nextInt(6);
+                for (int charIndex = 0; charIndex < wordLength; charIndex++)
+                    builder.append(CHARS.charAt(random.nextInt(CHARS.length())));
+                words.add(builder.toString());
+            }
+            sentences.add(words);
+        }
+        return sentences;
+    }
+
+    private static void assertNormalizedLikeRegex() {
+        Context context = new Context();
+        for (List<String> words : getSentences()) {
+            context.reset(words);
+            List<String> expected = new ArrayList<>(Arrays.asList(Tagger.START));
+            for (String word : words)
+                expected.add(normalize(word));
+            expected.addAll(Arrays.asList(Tagger.END));
+
+            List<String> normalized = new ArrayList<>();
+            for (int index = 0; index < context.size(); index++)
+                normalized.add(context.get(index));
+            assertEquals(words.toString(), expected, normalized);
+        }
+    }
+
+    @Test
+    public void normalizesLikeRegex() {
+        assertNormalizedLikeRegex();
+    }
+
+    // ASCII letters are lowercased to other letters in some locales
+    @Test
+    public void normalizesLikeRegexInTurkishLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertNormalizedLikeRegex();
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
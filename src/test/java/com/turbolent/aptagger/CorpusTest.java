@@ -0,0 +1,103 @@
+package com.turbolent.aptagger;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// Compares the sentences of a mapped corpus to the lines parsed by asSentence
+public class CorpusTest {
+    private static final String[] WORDS = {"the", "Dog", "1,000", "\u00fcber", "na\u00efve", "a"};
+    private static final String[] TAGS = {"DT", "NN", "CD", "IN", "JJ", "."};
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+    private static List<String> getLines(Random random, int lineCount, int maximumLength) {
+        List<String> lines = new ArrayList<>(lineCount);
+        for (int lineIndex = 0; lineIndex < lineCount; lineIndex++) {
+            StringBuilder builder = new StringBuilder();
+            int length = 1 + random.nextInt(maximumLength);
+            for (int index = 0; index < length; index++) {
+                if (index > 0)
+                    builder.append(' ');
+                builder.append(WORDS[random.nextInt(WORDS.length)])
+                       .append('_')
+                       .append(TAGS[random.nextInt(TAGS.length)]);
+            }
+            lines.add(builder.toString());
+        }
+        return lines;
+    }
+
+    private static Path write(String name, List<String> lines) throws IOException {
+        Path path = FOLDER.newFile(name).toPath();
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+                writer.write(lines.get(lineIndex));
+                // the last line has no line end
+                if (lineIndex < lines.size() - 1)
+                    writer.write(lineIndex % 2 == 0 ? "\n" : "\r\n");
+            }
+        }
+        return path;
+    }
+
+    private static void assertSentences(List<String> lines, Corpus corpus) {
+        assertEquals(lines.size(), corpus.size());
+        long tokenCount = 0;
+        for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+            TaggedSentence expected = CommandLineInterface.asSentence(lines.get(lineIndex));
+            TaggedSentence sentence = corpus.get(lineIndex);
+            assertEquals(expected.words, sentence.words);
+            assertEquals(expected.tags, sentence.tags);
+            tokenCount += expected.words.size();
+        }
+        assertEquals(tokenCount, corpus.getTokenCount());
+    }
+
+    @Test
+    public void readsLikeSentences() throws IOException {
+        List<String> lines = getLines(new Random(42), 1000, 10);
+        assertSentences(lines, Corpus.read(write("corpus.txt", lines)));
+    }
+
+    // Sentences span the chunks of the token ids
+    @Test
+    public void readsSentencesAcrossChunks() throws IOException {
+        List<String> lines = new ArrayList<>();
+        long tokenCount = 0;
+        Random random = new Random(43);
+        while (tokenCount < Corpus.CHUNK_SIZE + 1000) {
+            List<String> line = getLines(random, 1, 40);
+            lines.addAll(line);
+            tokenCount += CommandLineInterface.asSentence(line.get(0)).words.size();
+        }
+        assertSentences(lines, Corpus.read(write("large-corpus.txt", lines)));
+    }
+
+    @Test
+    public void failsBeyondArraySize() {
+        try {
+            assertEquals(Corpus.MAXIMUM_ARRAY_SIZE,
+                         Corpus.getCapacity(1 << 30, (1L << 30) + 1, "sentences"));
+            Corpus.getCapacity(Corpus.MAXIMUM_ARRAY_SIZE, Corpus.MAXIMUM_ARRAY_SIZE + 1L,
+                               "sentences");
+            fail("Grew beyond the array size");
+        } catch (IOException e) {
+            assertEquals("Corpus has too many sentences: more than " + Corpus.MAXIMUM_ARRAY_SIZE,
+                         e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.turbolent.aptagger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Checks that evaluations merged with addAll, as evaluated by several threads,
+// equal one evaluation of all sentences
+public class EvaluationTest {
+    // more tags than the initial capacity of the confusion matrix
+    private static final int TAG_COUNT = 100;
+    private static final int SENTENCE_COUNT = 500;
+    private static final int PART_COUNT = 7;
+
+    @Test
+    public void mergesLikeOneEvaluation() {
+        Random random = new Random(42);
+        Map<String, String> dictionary = new HashMap<>();
+        for (int index = 0; index < 20; index++)
+            dictionary.put("w" + index, "T" + index);
+        Tagger tagger =
+            new Tagger(dictionary,
+                       new AveragedPerceptron(new String[] {"T0"},
+                                              new HeapWeightStore(1, new long[0],
+                                                                  new float[0])));
+
+        List<TaggedSentence> sentences = new ArrayList<>();
+        List<List<String>> guesses = new ArrayList<>();
+        for (int sentenceIndex = 0; sentenceIndex < SENTENCE_COUNT; sentenceIndex++) {
+            int length = 1 + random.nextInt(10);
+            List<String> words = new ArrayList<>(length);
+            List<String> tags = new ArrayList<>(length);
+            List<String> sentenceGuesses = new ArrayList<>(length);
+            for (int index = 0; index < length; index++) {
+                int tag = random.nextInt(TAG_COUNT);
+                words.add("w" + random.nextInt(40));
+                tags.add("T" + tag);
+                int guess = random.nextBoolean() ? tag : random.nextInt(TAG_COUNT);
+                sentenceGuesses.add("T" + guess);
+            }
+            sentences.add(new TaggedSentence(words, tags));
+            guesses.add(sentenceGuesses);
+        }
+
+        Evaluation evaluation = new Evaluation();
+        Evaluation[] parts = new Evaluation[PART_COUNT];
+        for (int part = 0; part < PART_COUNT; part++)
+            parts[part] = new Evaluation();
+        for (int index = 0; index < SENTENCE_COUNT; index++) {
+            evaluation.add(tagger, sentences.get(index), guesses.get(index));
+            parts[index % PART_COUNT].add(tagger, sentences.get(index), guesses.get(index));
+        }
+
+        // merged in reverse, so the tags are added in another order
+        Evaluation merged = new Evaluation();
+        for (int part = PART_COUNT - 1; part >= 0; part--)
+            merged.addAll(parts[part]);
+
+        assertEquals(evaluation.getSentenceCount(), merged.getSentenceCount());
+        assertEquals(evaluation.getTokenCount(), merged.getTokenCount());
+        assertEquals(evaluation.getCorrectCount(), merged.getCorrectCount());
+        assertEquals(evaluation.getDictionaryAccuracy(), merged.getDictionaryAccuracy(), 0);
+        assertEquals(evaluation.getPredictedAccuracy(), merged.getPredictedAccuracy(), 0);
+        for (int tag = 0; tag < TAG_COUNT; tag++) {
+            for (int guess = 0; guess < TAG_COUNT; guess++) {
+                assertEquals(evaluation.getCount("T" + tag, "T" + guess),
+                             merged.getCount("T" + tag, "T" + guess));
+            }
+        }
+        assertEquals(evaluation.toJson(), merged.toJson());
+    }
+}
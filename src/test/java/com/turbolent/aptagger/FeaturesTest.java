@@ -0,0 +1,175 @@
+package com.turbolent.aptagger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+// Checks that the features extracted from a context have the ids of the keys
+// of the legacy model format, see Features.getId(String)
+public class FeaturesTest {
+    private static final String[] LABELS = {"NN", "VB", "DT", "JJ", "IN", "-START-", "-START2-"};
+    private static final int SENTENCE_COUNT = 500;
+
+    private static String getWord(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return String.valueOf(random.nextInt(10_000));
+            case 1:
+                return random.nextInt(100) + "," + random.nextInt(1000);
+            case 2:
+                return random.nextBoolean() ? "\u00dcber" : "na\u00efve";
+            default:
+                StringBuilder builder = new StringBuilder();
+                int length = 1 + random.nextInt(8);
+                for (int index = 0; index < length; index++) {
+                    char letter = (char) ('a' + random.nextInt(6));
+                    if (random.nextInt(4) == 0)
+                        letter = Character.toUpperCase(letter);
+                    builder.append(letter);
+                }
+                return builder.toString();
+        }
+    }
+
+    private static List<List<String>> getSentences(Random random) {
+        List<List<String>> sentences = new ArrayList<>();
+        for (int sentenceIndex = 0; sentenceIndex < SENTENCE_COUNT; sentenceIndex++) {
+            int length = 1 + random.nextInt(12);
+            List<String> words = new ArrayList<>(length);
+            for (int index = 0; index < length; index++)
+                words.add(getWord(random));
+            sentences.add(words);
+        }
+        return sentences;
+    }
+
+    private static String suffix(String word) {
+        return word.substring(Math.max(0, word.length() - 3));
+    }
+
+    // The keys of the legacy model format, in the order of Features.extract
+    private static List<String> getKeys(int i, String word, Context context,
+                                        String prev, String prev2)
+    {
+        return Arrays.asList("bias",
+                             "i suffix " + suffix(word),
+                             "i pref1 " + word.charAt(0),
+                             "i-1 tag " + prev,
+                             "i-2 tag " + prev2,
+                             "i tag+i-2 tag " + prev + " " + prev2,
+                             "i word " + context.get(i),
+                             "i-1 tag+i word " + prev + " " + context.get(i),
+                             "i-1 word " + context.get(i - 1),
+                             "i-1 suffix " + suffix(context.get(i - 1)),
+                             "i-2 word " + context.get(i - 2),
+                             "i+1 word " + context.get(i + 1),
+                             "i+1 suffix " + suffix(context.get(i + 1)),
+                             "i+2 word " + context.get(i + 2));
+    }
+
+    @Test
+    public void extractsIdsOfLegacyKeys() {
+        Random random = new Random(42);
+        Features features = new Features();
+        Context context = new Context();
+        for (List<String> words : getSentences(random)) {
+            context.reset(words);
+            for (int index = 0; index < words.size(); index++) {
+                int i = Tagger.START.length + index;
+                String word = words.get(index);
+                String prev = LABELS[random.nextInt(LABELS.length)];
+                String prev2 = LABELS[random.nextInt(LABELS.length)];
+
+                List<String> keys = getKeys(i, word, context, prev, prev2);
+                long[] expected = new long[keys.size()];
+                for (int keyIndex = 0; keyIndex < keys.size(); keyIndex++)
+                    expected[keyIndex] = Features.getId(keys.get(keyIndex));
+
+                features.extract(i, word, context, prev, prev2);
+                assertArrayEquals(keys.toString(), expected,
+                                  Arrays.copyOf(features.ids, features.size));
+            }
+        }
+    }
+
+    @Test
+    public void setsStaticAndDynamicFeaturesLikeExtracted() {
+        Random random = new Random(43);
+        Features features = new Features();
+        Features staticFeatures = new Features();
+        Features dynamicFeatures = new Features();
+        Context context = new Context();
+        for (List<String> words : getSentences(random)) {
+            context.reset(words);
+            for (int index = 0; index < words.size(); index++) {
+                int i = Tagger.START.length + index;
+                String word = words.get(index);
+                String prev = LABELS[random.nextInt(LABELS.length)];
+                String prev2 = LABELS[random.nextInt(LABELS.length)];
+
+                features.extract(i, word, context, prev, prev2);
+                long[] expected = Arrays.copyOf(features.ids, features.size);
+
+                staticFeatures.extractStatic(i, word, context);
+                assertEquals(Features.STATIC_COUNT, staticFeatures.size);
+                dynamicFeatures.extractDynamic(i, context, prev, prev2);
+                long[] dynamicIds = dynamicFeatures.ids;
+                features.set(staticFeatures.ids, 0, dynamicIds[0], dynamicIds[1],
+                             dynamicIds[2], dynamicIds[3]);
+                assertArrayEquals(expected, Arrays.copyOf(features.ids, features.size));
+            }
+        }
+    }
+
+    @Test
+    public void hashesWordsOfEachSentence() {
+        List<String> first = Arrays.asList("The", "dog", "runs");
+        List<String> second = Arrays.asList("A", "cat", "sleeps", "well");
+        Context context = new Context();
+        context.reset(first);
+        Features features = new Features();
+        features.extract(Tagger.START.length, "The", context, "-START-", "-START2-");
+
+        // the words of the previous sentence must not be reused
+        context.reset(second);
+        Context freshContext = new Context();
+        freshContext.reset(second);
+        for (int index = 0; index < second.size(); index++) {
+            int i = Tagger.START.length + index;
+            features.extract(i, second.get(index), context, "NN", "DT");
+            long[] ids = Arrays.copyOf(features.ids, features.size);
+            features.extract(i, second.get(index), freshContext, "NN", "DT");
+            assertArrayEquals(Arrays.copyOf(features.ids, features.size), ids);
+        }
+    }
+
+    @Test
+    public void distinguishesTemplatesAndOrder() {
+        assertNotEquals(Features.getId(Features.Template.WORD, "dog"),
+                        Features.getId(Features.Template.PREVIOUS_WORD, "dog"));
+        assertNotEquals(Features.getId(Features.Template.NEXT_WORD, "dog"),
+                        Features.getId(Features.Template.NEXT2_WORD, "dog"));
+        assertNotEquals(Features.getId(Features.Template.PREVIOUS_TAGS, "NN", "DT"),
+                        Features.getId(Features.Template.PREVIOUS_TAGS, "DT", "NN"));
+        assertNotEquals(Features.getId(Features.Template.PREVIOUS_TAGS, "NN", "NN"),
+                        Features.getId(Features.Template.PREVIOUS_TAGS, "DT", "DT"));
+    }
+
+    // The ids of saved models must not change
+    @Test
+    public void keepsIds() {
+        assertEquals(-1712367750488723212L, Features.getId("bias"));
+        assertEquals(3396448876478022269L, Features.getId(Features.Template.WORD, "the"));
+        assertEquals(2554429690006373572L, Features.getId(Features.Template.SUFFIX, "ing"));
+        assertEquals(5070508600070346420L,
+                     Features.getId(Features.Template.PREVIOUS_TAGS, "NN", "DT"));
+        assertEquals(9146205058531917069L, Features.getId("i-1 tag+i word NN \u00fcber"));
+    }
+}
@@ -0,0 +1,269 @@
+package com.turbolent.aptagger;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.msgpack.MessagePack;
+import org.msgpack.packer.Packer;
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares taggers loaded from the legacy model format to a map-backed tagger which scores
+// each label by the sum of its weights, on a model with many ties and few labels per feature
+public class LegacyModelTest {
+    private static final int LABEL_COUNT = 12;
+    private static final int VOCABULARY_SIZE = 300;
+    private static final int TRAINING_SENTENCE_COUNT = 300;
+    private static final int TEST_SENTENCE_COUNT = 1000;
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+    private static Path modelPath;
+    private static LegacyTagger legacyTagger;
+    private static List<List<String>> sentences;
+
+    // A map-backed tagger of the legacy model format, which breaks ties by the label order
+    private static final class LegacyTagger {
+        private static final Pattern NUMBER = Pattern.compile("[0-9][0-9,.]*");
+
+        final Map<String, String> tags;
+        final Map<String, Map<String, Float>> weights;
+        final String[] labels;
+
+        LegacyTagger(Map<String, String> tags, Map<String, Map<String, Float>> weights,
+                     String[] labels)
+        {
+            this.tags = tags;
+            this.weights = weights;
+            this.labels = labels;
+        }
+
+        static LegacyTagger loadFrom(Path path, String[] labels) throws IOException {
+            try (FileInputStream fileStream = new FileInputStream(path.toFile());
+                 Unpacker unpacker = new MessagePack().createUnpacker(fileStream))
+            {
+                Map<String, String> tags = unpacker.read(Tagger.TAGS_TEMPLATE);
+                return new LegacyTagger(tags, unpacker.read(Tagger.WEIGHTS_TEMPLATE), labels);
+            }
+        }
+
+        static String normalize(String word) {
+            if (NUMBER.matcher(word).matches())
+                return "!NUMBER";
+            return word.toLowerCase();
+        }
+
+        static List<String> getContext(List<String> words) {
+            List<String> context = new ArrayList<>(Arrays.asList(Tagger.START));
+            for (String word : words)
+                context.add(normalize(word));
+            context.addAll(Arrays.asList(Tagger.END));
+            return context;
+        }
+
+        static String suffix(String word) {
+            return word.substring(Math.max(0, word.length() - 3));
+        }
+
+        static void addFeature(Map<String, Integer> features, String... arguments) {
+            features.merge(String.join(" ", arguments), 1, (current, initial) -> current + 1);
+        }
+
+        static Map<String, Integer> getFeatures(int i, String word, List<String> context,
+                                                String prev, String prev2)
+        {
+            Map<String, Integer> features = new HashMap<>();
+            addFeature(features, "bias");
+            addFeature(features, "i suffix", suffix(word));
+            addFeature(features, "i pref1", String.valueOf(word.charAt(0)));
+            addFeature(features, "i-1 tag", prev);
+            addFeature(features, "i-2 tag", prev2);
+            addFeature(features, "i tag+i-2 tag", prev, prev2);
+            addFeature(features, "i word", context.get(i));
+            addFeature(features, "i-1 tag+i word", prev, context.get(i));
+            addFeature(features, "i-1 word", context.get(i - 1));
+            addFeature(features, "i-1 suffix", suffix(context.get(i - 1)));
+            addFeature(features, "i-2 word", context.get(i - 2));
+            addFeature(features, "i+1 word", context.get(i + 1));
+            addFeature(features, "i+1 suffix", suffix(context.get(i + 1)));
+            addFeature(features, "i+2 word", context.get(i + 2));
+            return features;
+        }
+
+        String predict(Map<String, Integer> features) {
+            Map<String, Float> scores = new HashMap<>();
+            for (Map.Entry<String, Integer> featureEntry : features.entrySet()) {
+                int value = featureEntry.getValue();
+                Map<String, Float> weights = this.weights.get(featureEntry.getKey());
+                if (weights == null)
+                    continue;
+                for (Map.Entry<String, Float> weightEntry : weights.entrySet())
+                    scores.merge(weightEntry.getKey(), value * weightEntry.getValue(), Float::sum);
+            }
+            String best = this.labels[0];
+            for (String label : this.labels) {
+                if (scores.getOrDefault(label, 0.f) > scores.getOrDefault(best, 0.f))
+                    best = label;
+            }
+            return best;
+        }
+
+        List<String> tag(List<String> words) {
+            List<String> context = getContext(words);
+            String prev = Tagger.START[0];
+            String prev2 = Tagger.START[1];
+            List<String> tags = new ArrayList<>();
+            for (int index = 0; index < words.size(); index++) {
+                String word = words.get(index);
+                String tag = this.tags.get(word);
+                if (tag == null) {
+                    tag = predict(getFeatures(Tagger.START.length + index, word, context,
+                                              prev, prev2));
+                }
+                tags.add(tag);
+                prev2 = prev;
+                prev = tag;
+            }
+            return tags;
+        }
+    }
+
+    private static String getWord(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return String.valueOf(random.nextInt(10_000));
+            case 1:
+                return random.nextInt(100) + "," + random.nextInt(1000)
+                       + "." + random.nextInt(10);
+            case 2:
+                return random.nextBoolean() ? "Über" + random.nextInt(5) : "naïve";
+            default:
+                StringBuilder builder = new StringBuilder();
+                int length = 1 + random.nextInt(8);
+                for (int index = 0; index < length; index++) {
+                    char letter = (char) ('a' + random.nextInt(6));
+                    if (random.nextInt(4) == 0)
+                        letter = Character.toUpperCase(letter);
+                    builder.append(letter);
+                }
+                return builder.toString();
+        }
+    }
+
+    private static List<String> getSentence(Random random, List<String> vocabulary) {
+        int length = 1 + random.nextInt(12);
+        List<String> words = new ArrayList<>(length);
+        for (int index = 0; index < length; index++) {
+            words.add(random.nextInt(10) == 0
+                      ? getWord(random)
+                      : vocabulary.get(random.nextInt(vocabulary.size())));
+        }
+        return words;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Random random = new Random(42);
+
+        Set<String> labels = new HashSet<>();
+        for (int labelId = 0; labelId < LABEL_COUNT; labelId++)
+            labels.add("T" + labelId);
+        List<String> labelList = new ArrayList<>(labels);
+
+        List<String> vocabulary = new ArrayList<>();
+        for (int index = 0; index < VOCABULARY_SIZE; index++)
+            vocabulary.add(getWord(random));
+
+        Map<String, String> tags = new HashMap<>();
+        for (int index = 0; index < VOCABULARY_SIZE / 10; index++)
+            tags.put(vocabulary.get(index), labelList.get(random.nextInt(LABEL_COUNT)));
+
+        // weights for a few labels, with few distinct values, so many labels tie,
+        // and which are eighths, so the sums are exact in any order
+        Map<String, Map<String, Float>> weights = new HashMap<>();
+        for (int sentenceIndex = 0; sentenceIndex < TRAINING_SENTENCE_COUNT; sentenceIndex++) {
+            List<String> words = getSentence(random, vocabulary);
+            List<String> context = LegacyTagger.getContext(words);
+            String prev = Tagger.START[0];
+            String prev2 = Tagger.START[1];
+            for (int index = 0; index < words.size(); index++) {
+                String tag = labelList.get(random.nextInt(LABEL_COUNT));
+                Map<String, Integer> features =
+                    LegacyTagger.getFeatures(Tagger.START.length + index, words.get(index),
+                                             context, prev, prev2);
+                for (String feature : features.keySet()) {
+                    if (random.nextInt(4) == 0)
+                        continue;
+                    Map<String, Float> featureWeights =
+                        weights.computeIfAbsent(feature, key -> new HashMap<>());
+                    int labelCount = 1 + random.nextInt(3);
+                    for (int labelIndex = 0; labelIndex < labelCount; labelIndex++) {
+                        featureWeights.put(labelList.get(random.nextInt(LABEL_COUNT)),
+                                           (1 + random.nextInt(5)) / 8.f);
+                    }
+                }
+                prev2 = prev;
+                prev = tag;
+            }
+        }
+
+        modelPath = FOLDER.newFile("legacy.model").toPath();
+        try (FileOutputStream fileStream = new FileOutputStream(modelPath.toFile());
+             Packer packer = new MessagePack().createPacker(fileStream))
+        {
+            packer.write(tags);
+            packer.write(weights);
+            packer.write(labels);
+        }
+        // ties are broken by the order of the labels of the compiled model
+        String[] labelArray = Tagger.loadFrom(modelPath).perceptron.labels;
+        legacyTagger = LegacyTagger.loadFrom(modelPath, labelArray);
+
+        sentences = new ArrayList<>();
+        for (int index = 0; index < TEST_SENTENCE_COUNT; index++)
+            sentences.add(getSentence(random, vocabulary));
+    }
+
+    private static void assertTagsLikeLegacyTagger(Tagger tagger) {
+        for (List<String> words : sentences)
+            assertEquals(words.toString(), legacyTagger.tag(words), tagger.tag(words));
+    }
+
+    @Test
+    public void tagsBySumOfWeights() throws IOException {
+        assertTagsLikeLegacyTagger(Tagger.loadFrom(modelPath));
+    }
+
+    @Test
+    public void tagsBySumOfWeightsInSessions() throws IOException {
+        Tagger tagger = Tagger.loadFrom(modelPath);
+        TaggingSession session = tagger.newSession();
+        String[] tags = new String[16];
+        for (List<String> words : sentences) {
+            session.tag(words, tags);
+            assertEquals(legacyTagger.tag(words), Arrays.asList(tags).subList(0, words.size()));
+        }
+    }
+
+    @Test
+    public void tagsBySumOfWeightsInVersionedFormats() throws IOException {
+        Tagger tagger = Tagger.loadFrom(modelPath);
+        for (Tagger.Format format : Tagger.Format.values()) {
+            Path path = FOLDER.newFile("legacy-" + format + ".model").toPath();
+            tagger.saveTo(path, format);
+            Tagger savedTagger = Tagger.loadFrom(path);
+            assertTagsLikeLegacyTagger(savedTagger);
+        }
+        assertTagsLikeLegacyTagger(tagger.toOffHeap());
+    }
+}
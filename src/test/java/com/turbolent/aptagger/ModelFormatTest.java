@@ -0,0 +1,186 @@
+package com.turbolent.aptagger;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.msgpack.MessagePack;
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Saves a trained tagger in each format and quantization, and checks that
+// the loaded taggers have the same properties and tag like the saved ones
+public class ModelFormatTest {
+    private static final String[] LABELS = {"DT", "JJ", "NN", "VB", "RB", "IN", "CD"};
+    private static final int VOCABULARY_SIZE = 200;
+    private static final int TRAINING_SENTENCE_COUNT = 400;
+    private static final int TEST_SENTENCE_COUNT = 300;
+    private static final long SEED = 42;
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+    private static Tagger tagger;
+    private static List<List<String>> sentences;
+
+    // Generates sentences of words with one tag, or with a tag depending on the previous one
+    private static List<TaggedSentence> generate(Random random, List<String> vocabulary,
+                                                 int sentenceCount)
+    {
+        List<TaggedSentence> sentences = new ArrayList<>();
+        for (int sentenceIndex = 0; sentenceIndex < sentenceCount; sentenceIndex++) {
+            int length = 1 + random.nextInt(15);
+            List<String> words = new ArrayList<>(length);
+            List<String> tags = new ArrayList<>(length);
+            int previousTag = 0;
+            for (int index = 0; index < length; index++) {
+                int wordIndex = random.nextInt(vocabulary.size());
+                String word = random.nextInt(20) == 0
+                              ? String.valueOf(random.nextInt(1000))
+                              : vocabulary.get(wordIndex);
+                int tag = wordIndex % 5 == 0
+                          ? (previousTag + 1) % LABELS.length
+                          : wordIndex % LABELS.length;
+                words.add(word);
+                tags.add(LABELS[tag]);
+                previousTag = tag;
+            }
+            sentences.add(new TaggedSentence(words, tags));
+        }
+        return sentences;
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        Random random = new Random(SEED);
+        List<String> vocabulary = new ArrayList<>();
+        for (int index = 0; index < VOCABULARY_SIZE; index++) {
+            StringBuilder builder = new StringBuilder();
+            int length = 2 + random.nextInt(6);
+            for (int charIndex = 0; charIndex < length; charIndex++)
+                builder.append((char) ('a' + random.nextInt(10)));
+            if (index % 7 == 0)
+                builder.setCharAt(0, Character.toUpperCase(builder.charAt(0)));
+            vocabulary.add(builder.toString());
+        }
+
+        tagger = TrainableTagger.getTrained(generate(random, vocabulary,
+                                                     TRAINING_SENTENCE_COUNT),
+                                            5, 20, 0.97f, 1, SEED, null);
+
+        sentences = new ArrayList<>();
+        for (TaggedSentence sentence : generate(random, vocabulary, TEST_SENTENCE_COUNT))
+            sentences.add(sentence.words);
+    }
+
+    private static void assertTagsLike(Tagger expected, Tagger actual) {
+        for (List<String> words : sentences)
+            assertEquals(words.toString(), expected.tag(words), actual.tag(words));
+    }
+
+    private static void assertPropertiesLike(Tagger expected, Tagger actual) {
+        assertEquals(expected.perceptron.weights.getQuantization(),
+                     actual.perceptron.weights.getQuantization());
+        assertEquals(expected.tags, actual.tags);
+    }
+
+    private static int readVersion(Path path, Tagger.Format format) throws IOException {
+        if (format == Tagger.Format.MAPPED) {
+            byte[] bytes = Files.readAllBytes(path);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt(4);
+        }
+
+        try (FileInputStream fileStream = new FileInputStream(path.toFile());
+             Unpacker unpacker = new MessagePack().createUnpacker(fileStream))
+        {
+            return unpacker.readInt();
+        }
+    }
+
+    @Test
+    public void roundTripsFormatsAndQuantizations() throws IOException {
+        for (Tagger.Format format : Tagger.Format.values()) {
+            for (Quantization quantization : Quantization.values()) {
+                Tagger quantized = tagger.quantize(quantization);
+                Path path = FOLDER.newFile(format + "-" + quantization + ".model").toPath();
+                quantized.saveTo(path, format);
+                assertEquals(format == Tagger.Format.MAPPED,
+                             MappedModelFile.isMappedModel(path));
+
+                Tagger loaded = Tagger.loadFrom(path);
+                assertPropertiesLike(quantized, loaded);
+                assertTagsLike(quantized, loaded);
+            }
+        }
+    }
+
+    @Test
+    public void savesCurrentVersion() throws IOException {
+        for (Tagger.Format format : Tagger.Format.values()) {
+            Path path = FOLDER.newFile("current-" + format + ".model").toPath();
+            tagger.saveTo(path, format);
+            assertEquals(Tagger.FORMAT_VERSION, readVersion(path, format));
+        }
+    }
+
+    // The feature ids of older versions were hashed differently, so they can't be loaded
+    @Test
+    public void rejectsOlderVersions() throws IOException {
+        for (Tagger.Format format : Tagger.Format.values()) {
+            Path path = FOLDER.newFile("older-" + format + ".model").toPath();
+            tagger.saveTo(path, format);
+            byte[] bytes = Files.readAllBytes(path);
+            // the version follows the magic of mapped models, and starts msgpack models
+            if (format == Tagger.Format.MAPPED)
+                ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 2);
+            else
+                bytes[0] = 2;
+            Files.write(path, bytes);
+
+            try {
+                Tagger.loadFrom(path);
+                fail("Loaded a model of an older version");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("retrained"));
+            }
+        }
+    }
+
+    @Test
+    public void tagsOffHeapLikeOnHeap() {
+        for (Quantization quantization : Quantization.values()) {
+            Tagger quantized = tagger.quantize(quantization);
+            Tagger offHeap = quantized.toOffHeap();
+            assertPropertiesLike(quantized, offHeap);
+            assertTagsLike(quantized, offHeap);
+
+            // the weights are copied as they are, not encoded again
+            WeightStore expected = quantized.perceptron.weights;
+            WeightStore actual = offHeap.perceptron.weights;
+            assertTrue(((BufferWeightStore) actual).isDirect());
+            assertEquals(expected.getFeatureCount(), actual.getFeatureCount());
+            for (int row = 0; row < expected.getFeatureCount(); row++) {
+                long feature = expected.getFeature(row);
+                assertEquals(feature, actual.getFeature(row));
+                assertEquals(row, actual.findRow(feature));
+                for (int labelId = 0; labelId < expected.getLabelCount(); labelId++) {
+                    assertEquals(expected.getWeight(row, labelId),
+                                 actual.getWeight(row, labelId), 0);
+                }
+            }
+        }
+    }
+}
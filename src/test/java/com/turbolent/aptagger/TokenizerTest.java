@@ -0,0 +1,81 @@
+package com.turbolent.aptagger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+// Compares the splitting of sentences and tokens to the regular expressions it replaced
+public class TokenizerTest {
+    private static final Pattern SENTENCE_SEPARATOR = Pattern.compile(" ");
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("_");
+    private static final int MAXIMUM_LENGTH = 7;
+
+    // The sentence parsing with regular expressions, as it was before the tokenizer
+    private static TaggedSentence asRegexSentence(String sentence) {
+        List<String> words = new ArrayList<>();
+        List<String> tags = new ArrayList<>();
+        for (String token : SENTENCE_SEPARATOR.splitAsStream(sentence)
+                                              .collect(Collectors.toList()))
+        {
+            String[] parts = TOKEN_SEPARATOR.split(token);
+            if (parts.length != 2)
+                throw new RuntimeException("Invalid token " + token);
+            words.add(parts[0]);
+            tags.add(parts[1]);
+        }
+        return new TaggedSentence(words, tags);
+    }
+
+    // Returns all strings of the given alphabet, up to the maximum length
+    private static List<String> getStrings(String alphabet) {
+        List<String> strings = new ArrayList<>();
+        strings.add("");
+        for (int start = 0; start < strings.size(); start++) {
+            String string = strings.get(start);
+            if (string.length() == MAXIMUM_LENGTH)
+                break;
+            for (int index = 0; index < alphabet.length(); index++)
+                strings.add(string + alphabet.charAt(index));
+        }
+        return strings;
+    }
+
+    private static TaggedSentence parse(String sentence, boolean regex) {
+        try {
+            return regex ? asRegexSentence(sentence) : CommandLineInterface.asSentence(sentence);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void splitsLikePattern() {
+        for (String string : getStrings("a_ ")) {
+            assertEquals('"' + string + '"',
+                         Arrays.asList(SENTENCE_SEPARATOR.split(string)),
+                         Tokenizer.split(string, ' '));
+        }
+    }
+
+    @Test
+    public void parsesSentencesLikeRegex() {
+        for (String string : getStrings("ab_ ")) {
+            TaggedSentence expected = parse(string, true);
+            TaggedSentence sentence = parse(string, false);
+            String message = '"' + string + '"';
+            if (expected == null) {
+                assertNull(message, sentence);
+                continue;
+            }
+            assertEquals(message, expected.words, sentence.words);
+            assertEquals(message, expected.tags, sentence.tags);
+        }
+    }
+}